@@ -1,18 +1,38 @@
 package fr.tvbarthel.intentshare.loader.glide;
 
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Parcel;
 import android.widget.ImageView;
 
+import com.bumptech.glide.DrawableRequestBuilder;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
 
-import fr.tvbarthel.intentshare.IconLoader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.tvbarthel.intentshare.ExtendedIconLoader;
+import fr.tvbarthel.intentshare.IconCacheStats;
+import fr.tvbarthel.intentshare.R;
 
 /**
  * {@link fr.tvbarthel.intentshare.IconLoader} based on {@link com.bumptech.glide.Glide}
+ * <p/>
+ * Icons are opened from the resources of their package by a dedicated {@link PackageIconModelLoader}
+ * and cached until the target application is updated. Icons of the rows about to be scrolled on
+ * screen are preloaded through {@link ExtendedIconLoader#preload(Context, List)}.
  */
-public class GlideIconLoader implements IconLoader {
+public class GlideIconLoader implements ExtendedIconLoader {
 
     /**
      * Parcelable
@@ -29,10 +49,59 @@ public class GlideIconLoader implements IconLoader {
         }
     };
 
+    /**
+     * Number of icons delivered from the Glide memory cache.
+     */
+    private static final AtomicLong MEMORY_HIT_COUNT = new AtomicLong();
+
+    /**
+     * Number of icons delivered from another source than the Glide memory cache.
+     */
+    private static final AtomicLong MEMORY_MISS_COUNT = new AtomicLong();
+
+    /**
+     * Listener used to count memory cache hits and misses, Glide doesn't expose them.
+     */
+    private static final RequestListener<Object, GlideDrawable> STATS_LISTENER
+            = new RequestListener<Object, GlideDrawable>() {
+        @Override
+        public boolean onException(Exception e, Object model, Target<GlideDrawable> target,
+                                   boolean isFirstResource) {
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(GlideDrawable resource, Object model, Target<GlideDrawable> target,
+                                       boolean isFromMemoryCache, boolean isFirstResource) {
+            if (isFromMemoryCache) {
+                MEMORY_HIT_COUNT.incrementAndGet();
+            } else {
+                MEMORY_MISS_COUNT.incrementAndGet();
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Request manager which issued the loads of the chooser, the one to pause and resume.
+     */
+    private RequestManager requestManager;
+
+    /**
+     * Model loader of the package icons, lazily created.
+     */
+    private PackageIconModelLoader modelLoader;
+
+    /**
+     * Targets of the pending preloads, used to cancel them.
+     */
+    private final HashMap<Uri, Target<GlideDrawable>> preloadTargets;
+
     /**
      * {@link fr.tvbarthel.intentshare.IconLoader} based on {@link com.bumptech.glide.Glide}
      */
     public GlideIconLoader() {
+        preloadTargets = new HashMap<>();
     }
 
     /**
@@ -41,15 +110,12 @@ public class GlideIconLoader implements IconLoader {
      * @param in parcel.
      */
     protected GlideIconLoader(Parcel in) {
+        preloadTargets = new HashMap<>();
     }
 
     @Override
     public void load(Uri iconUri, ImageView imageView) {
-        Glide.with(imageView.getContext())
-                .load(iconUri)
-                .fitCenter()
-                .diskCacheStrategy(DiskCacheStrategy.RESULT)
-                .into(imageView);
+        buildRequest(imageView.getContext(), iconUri).into(imageView);
     }
 
     @Override
@@ -57,6 +123,56 @@ public class GlideIconLoader implements IconLoader {
         Glide.clear(imageView);
     }
 
+    @Override
+    public void preload(Context context, List<Uri> iconUris) {
+        // same size as the icon image views for the preloaded icons to match the memory cache keys.
+        int iconSize = context.getResources().getDimensionPixelSize(R.dimen.isl_target_activity_view_icon_size);
+        for (int i = 0; i < iconUris.size(); i++) {
+            Uri iconUri = iconUris.get(i);
+            preloadTargets.put(iconUri, buildRequest(context, iconUri).preload(iconSize, iconSize));
+        }
+    }
+
+    @Override
+    public void cancelPreload(Context context, List<Uri> iconUris) {
+        for (int i = 0; i < iconUris.size(); i++) {
+            Target<GlideDrawable> target = preloadTargets.remove(iconUris.get(i));
+            if (target != null) {
+                // no-op for the preloads already completed.
+                Glide.clear(target);
+            }
+        }
+    }
+
+    @Override
+    public void pause(Context context) {
+        RequestManager manager = getRequestManager(context);
+        if (manager != null) {
+            manager.pauseRequests();
+        }
+    }
+
+    @Override
+    public void resume(Context context) {
+        RequestManager manager = getRequestManager(context);
+        if (manager != null) {
+            manager.resumeRequests();
+        }
+    }
+
+    @Override
+    public void trim(Context context, int level) {
+        Glide.get(context).trimMemory(level);
+    }
+
+    @Override
+    public IconCacheStats stats(Context context) {
+        return new IconCacheStats.Builder()
+                .memoryHitCount(MEMORY_HIT_COUNT.get())
+                .memoryMissCount(MEMORY_MISS_COUNT.get())
+                .build();
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -66,4 +182,70 @@ public class GlideIconLoader implements IconLoader {
     public void writeToParcel(Parcel dest, int flags) {
     }
 
+    /**
+     * Build the request of an icon, shared by the loads and the preloads for them to use the
+     * same cache keys.
+     *
+     * @param context context used to load the icon.
+     * @param iconUri uri of the icon.
+     * @return request of the icon.
+     */
+    private DrawableRequestBuilder<?> buildRequest(Context context, Uri iconUri) {
+        RequestManager manager = getRequestManager(context);
+        if (manager == null) {
+            // destroyed chooser, its own request manager can't be retrieved anymore.
+            manager = Glide.with(context.getApplicationContext());
+        }
+        PackageIcon packageIcon = PackageIcon.fromUri(iconUri);
+        DrawableRequestBuilder<?> request;
+        boolean cached = true;
+        if (packageIcon != null) {
+            if (modelLoader == null) {
+                modelLoader = new PackageIconModelLoader(context);
+            }
+            request = manager.using(modelLoader).load(packageIcon);
+            // unversioned keys would outlive an update of the target application.
+            cached = modelLoader.isVersionCodeKnown(packageIcon.getPackageName());
+        } else {
+            request = manager.load(iconUri);
+        }
+        return request
+                .fitCenter()
+                .skipMemoryCache(!cached)
+                .diskCacheStrategy(cached ? DiskCacheStrategy.RESULT : DiskCacheStrategy.NONE)
+                .listener(STATS_LISTENER);
+    }
+
+    /**
+     * Retrieve the request manager issuing the loads of the chooser.
+     * <p/>
+     * Glide pauses requests per request manager : loads, preloads, pauses and resumes have to go
+     * through the same one. It is released once the chooser is destroyed, its requests being
+     * cleared by Glide.
+     *
+     * @param context context of the chooser.
+     * @return request manager of the chooser or null if the chooser has been destroyed.
+     */
+    private RequestManager getRequestManager(Context context) {
+        if (isDestroyed(context)) {
+            requestManager = null;
+            return null;
+        }
+        if (requestManager == null) {
+            requestManager = Glide.with(context);
+        }
+        return requestManager;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static boolean isDestroyed(Context context) {
+        Context current = context;
+        while (current instanceof ContextWrapper && !(current instanceof Activity)) {
+            current = ((ContextWrapper) current).getBaseContext();
+        }
+        // Glide only rejects destroyed activities from Jelly Bean MR1.
+        return current instanceof Activity
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                && ((Activity) current).isDestroyed();
+    }
 }
@@ -0,0 +1,86 @@
+package fr.tvbarthel.intentshare.loader.glide;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.List;
+
+/**
+ * Glide model of a target activity icon : a drawable resource of an installed package.
+ * <p/>
+ * See also : {@link PackageIconModelLoader}
+ */
+final class PackageIcon {
+
+    private final String packageName;
+    private final int resId;
+
+    /**
+     * Glide model of a target activity icon.
+     *
+     * @param packageName package of the target application.
+     * @param resId       drawable resource of the icon in the target application.
+     */
+    PackageIcon(String packageName, int resId) {
+        this.packageName = packageName;
+        this.resId = resId;
+    }
+
+    /**
+     * Build the model of an icon from its uri.
+     *
+     * @param iconUri uri of the icon, {@link ContentResolver#SCHEME_ANDROID_RESOURCE} with the
+     *                package as authority and the resource id as path.
+     * @return model of the icon or null if the uri doesn't point to a package resource by id.
+     */
+    static PackageIcon fromUri(Uri iconUri) {
+        if (!ContentResolver.SCHEME_ANDROID_RESOURCE.equals(iconUri.getScheme())
+                || iconUri.getAuthority() == null) {
+            return null;
+        }
+        List<String> segments = iconUri.getPathSegments();
+        if (segments.size() != 1) {
+            return null;
+        }
+        try {
+            return new PackageIcon(iconUri.getAuthority(), Integer.parseInt(segments.get(0)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Package of the target application.
+     *
+     * @return package name.
+     */
+    String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * Drawable resource of the icon in the target application.
+     *
+     * @return resource id.
+     */
+    int getResId() {
+        return resId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PackageIcon that = (PackageIcon) o;
+        return resId == that.resId && packageName.equals(that.packageName);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * packageName.hashCode() + resId;
+    }
+}
@@ -0,0 +1,192 @@
+package fr.tvbarthel.intentshare.loader.glide;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.os.Build;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.stream.StreamModelLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Glide model loader opening {@link PackageIcon} straight from the resources of their package.
+ * <p/>
+ * Icons are cached under the package, its version code and the resource id : icons of an updated
+ * application are decoded again instead of being served from the caches.
+ * <p/>
+ * Version codes are resolved by the fetchers off the ui thread and kept for the whole process,
+ * the loader being created again for each chooser. Until the version code of a package is known,
+ * its icons are loaded without being cached, see {@link #isVersionCodeKnown(String)}.
+ * <p/>
+ * Icons are opened from the density bucket the closest to the requested size instead of the
+ * screen density, for them not to be upscaled.
+ */
+final class PackageIconModelLoader implements StreamModelLoader<PackageIcon> {
+
+    /**
+     * Version code used when the package can't be found.
+     */
+    private static final int UNKNOWN_VERSION_CODE = -1;
+
+    /**
+     * Size of launcher icons in dp.
+     */
+    private static final int LAUNCHER_ICON_SIZE_DP = 48;
+
+    /**
+     * Density buckets in ascending order.
+     */
+    private static final int[] DENSITY_BUCKETS = new int[]{
+            DisplayMetrics.DENSITY_LOW,
+            DisplayMetrics.DENSITY_MEDIUM,
+            DisplayMetrics.DENSITY_HIGH,
+            DisplayMetrics.DENSITY_XHIGH,
+            DisplayMetrics.DENSITY_XXHIGH,
+            DisplayMetrics.DENSITY_XXXHIGH
+    };
+
+    /**
+     * Version codes resolved by the fetchers since the process started, by package name.
+     */
+    private static final ConcurrentHashMap<String, Integer> VERSION_CODES = new ConcurrentHashMap<>();
+
+    private final Context context;
+
+    /**
+     * Glide model loader opening {@link PackageIcon} straight from the resources of their package.
+     *
+     * @param context context used to access to the package manager.
+     */
+    PackageIconModelLoader(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public DataFetcher<InputStream> getResourceFetcher(PackageIcon model, int width, int height) {
+        // called on the ui thread, the version code is never resolved here.
+        Integer versionCode = VERSION_CODES.get(model.getPackageName());
+        return new PackageIconFetcher(context, model,
+                versionCode == null ? UNKNOWN_VERSION_CODE : versionCode,
+                getIconDensity(Math.max(width, height)));
+    }
+
+    /**
+     * Used to know if the version code of a package has already been resolved.
+     * <p/>
+     * Icons of a package whose version code isn't known yet are cached under an unversioned key
+     * and shouldn't be cached at all.
+     *
+     * @param packageName package of the target application.
+     * @return true if the icons of the package are cached under their version code.
+     */
+    boolean isVersionCodeKnown(String packageName) {
+        return VERSION_CODES.containsKey(packageName);
+    }
+
+    /**
+     * Retrieve the smallest density bucket in which a launcher icon is at least as large as the
+     * requested size.
+     *
+     * @param size requested size of the icon in pixel.
+     * @return density to use to open the icon, 0 for the screen density.
+     */
+    private static int getIconDensity(int size) {
+        if (size <= 0) {
+            // original size requested.
+            return 0;
+        }
+        int requiredDensity = (int) Math.ceil((double) size * DisplayMetrics.DENSITY_DEFAULT / LAUNCHER_ICON_SIZE_DP);
+        for (int density : DENSITY_BUCKETS) {
+            if (density >= requiredDensity) {
+                return density;
+            }
+        }
+        return DENSITY_BUCKETS[DENSITY_BUCKETS.length - 1];
+    }
+
+    /**
+     * Fetcher opening the raw stream of a package icon.
+     */
+    private static final class PackageIconFetcher implements DataFetcher<InputStream> {
+
+        private final Context context;
+        private final PackageIcon model;
+        private final int versionCode;
+        private final int density;
+        private InputStream stream;
+
+        private PackageIconFetcher(Context context, PackageIcon model, int versionCode, int density) {
+            this.context = context;
+            this.model = model;
+            this.versionCode = versionCode;
+            this.density = density;
+        }
+
+        @Override
+        public InputStream loadData(Priority priority) throws Exception {
+            PackageManager packageManager = context.getPackageManager();
+            String packageName = model.getPackageName();
+            // off the ui thread, only on cache misses : next requests of the package are keyed by
+            // its current version, even once updated.
+            VERSION_CODES.put(packageName, packageManager.getPackageInfo(packageName, 0).versionCode);
+            Resources resources = packageManager.getResourcesForApplication(packageName);
+            stream = openStream(resources);
+            return stream;
+        }
+
+        /**
+         * Open the file of the icon from the density bucket of the fetcher.
+         * <p/>
+         * Fallback to the screen density when the file can't be opened directly, for instance
+         * when compressed inside the apk.
+         *
+         * @param resources resources of the target application.
+         * @return stream of the icon file.
+         */
+        private InputStream openStream(Resources resources) {
+            if (density == 0 || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+                return resources.openRawResource(model.getResId());
+            }
+            TypedValue value = new TypedValue();
+            resources.getValueForDensity(model.getResId(), density, value, true);
+            if (value.string == null) {
+                return resources.openRawResource(model.getResId());
+            }
+            try {
+                return resources.getAssets().openNonAssetFd(value.assetCookie, value.string.toString())
+                        .createInputStream();
+            } catch (IOException e) {
+                return resources.openRawResource(model.getResId());
+            }
+        }
+
+        @Override
+        public void cleanup() {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // nothing to do, the icon has already been decoded.
+                }
+                stream = null;
+            }
+        }
+
+        @Override
+        public String getId() {
+            return model.getPackageName() + "-" + versionCode + "-" + model.getResId();
+        }
+
+        @Override
+        public void cancel() {
+            // opening the stream is quick enough, the decode itself is canceled by Glide.
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Benchmark comparing the per-icon decode latency and allocation of each {@link IconDecoder}
+ * backend.
+ * <p/>
+ * Java heap allocations are counted by {@link Debug}. Pixels are allocated outside of the java
+ * heap from Android O, they are measured as the bytes allocated for the delivered bitmaps and as
+ * the growth of the native heap.
+ * <p/>
+ * Results are logged under the {@link #TAG} tag.
+ */
+public class IconDecoderBenchmark extends AndroidTestCase {
+
+    private static final String TAG = IconDecoderBenchmark.class.getSimpleName();
+
+    /**
+     * Decodes run before measuring to warm up the decoders.
+     */
+    private static final int WARM_UP_ITERATIONS = 10;
+
+    /**
+     * Measured decodes for each backend.
+     */
+    private static final int ITERATIONS = 100;
+
+    /**
+     * Benchmark the backends available on the device.
+     */
+    public void testCompareBackends() {
+        Resources resources = Resources.getSystem();
+        int iconResId = android.R.drawable.sym_def_app_icon;
+        int targetSize = getContext().getResources()
+                .getDimensionPixelSize(R.dimen.isl_target_activity_view_icon_size);
+
+        Bitmap reference = benchmark("BitmapFactory", new IconDecoder(IconDecoder.BACKEND_BITMAP_FACTORY),
+                resources, iconResId, targetSize);
+        assertNotNull(reference);
+
+        if (ImageDecoderIconBackend.isAvailable()) {
+            Bitmap icon = benchmark("ImageDecoder", new IconDecoder(IconDecoder.BACKEND_IMAGE_DECODER),
+                    resources, iconResId, targetSize);
+            assertNotNull(icon);
+            // same caching contract : icons are delivered at the exact same size.
+            assertEquals(reference.getWidth(), icon.getWidth());
+            assertEquals(reference.getHeight(), icon.getHeight());
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private Bitmap benchmark(String backend, IconDecoder decoder, Resources resources,
+                             int iconResId, int targetSize) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            decoder.decode(resources, iconResId, targetSize);
+        }
+
+        Bitmap icon = null;
+        long bitmapBytes = 0;
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        long nativeStart = Debug.getNativeHeapAllocatedSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            icon = decoder.decode(resources, iconResId, targetSize);
+            bitmapBytes += getAllocationByteCount(icon);
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        long nativeGrowth = Debug.getNativeHeapAllocatedSize() - nativeStart;
+
+        Log.i(TAG, String.format(
+                "%1$s : %2$d us per icon, %3$d allocations and %4$d bytes per icon on the java heap, "
+                        + "%5$d bitmap bytes per icon, %6$d bytes of native heap growth per icon.",
+                backend,
+                elapsed / ITERATIONS / 1000,
+                Debug.getThreadAllocCount() / ITERATIONS,
+                Debug.getThreadAllocSize() / ITERATIONS,
+                bitmapBytes / ITERATIONS,
+                nativeGrowth / ITERATIONS
+        ));
+        return icon;
+    }
+
+    private static int getAllocationByteCount(Bitmap icon) {
+        if (icon == null) {
+            return 0;
+        }
+        // includes the unused part of reused buffers.
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? icon.getAllocationByteCount() : icon.getByteCount();
+    }
+}
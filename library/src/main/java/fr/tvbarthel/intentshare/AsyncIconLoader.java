@@ -1,25 +1,43 @@
 package fr.tvbarthel.intentshare;
 
-import android.content.pm.PackageManager;
-import android.content.res.Resources;
+import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Parcel;
-import android.util.Log;
-import android.util.SparseArray;
+import android.support.annotation.NonNull;
+import android.view.View;
 import android.widget.ImageView;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Icon loader based on an {@link AsyncTask}.
+ * Icon loader decoding icons off the ui thread on a dedicated {@link IconDecodeExecutor}.
  * <p/>
- * No cashing is performed for decoded {@link Bitmap}.
+ * Decodes of icons displayed on screen are executed before the ones of icons scrolled off screen.
+ * <p/>
+ * Decoded {@link Bitmap} are kept in a process-wide memory cache shared across chooser launches.
+ * See also : {@link AsyncIconLoader#memoryCacheSize(int)}
+ * <p/>
+ * Icons evicted from the memory cache are still kept compressed outside of the java heap, see
+ * {@link AsyncIconLoader#compressedCacheSize(int)}. Icons scaled to their displayed size are also
+ * stored on disk until the target application is updated.
+ * <p/>
+ * Concurrent loads of the same icon share a single decode. Meanwhile, the dominant color of the
+ * icon computed on a previous decode is displayed as placeholder.
+ * <p/>
+ * Each image view carries the token of its pending request : results of a replaced request are
+ * dropped and canceling a request always reaches its decode.
+ * <p/>
+ * Optionally, decoded icons can be packed into a shared atlas, see
+ * {@link AsyncIconLoader#useIconAtlas(boolean)}, and shaped, see
+ * {@link AsyncIconLoader#iconShape(IconShape)}.
  */
-class AsyncIconLoader implements IconLoader {
+public class AsyncIconLoader implements ExtendedIconLoader {
 
     /**
      * Parcelable.
@@ -36,28 +54,103 @@ class AsyncIconLoader implements IconLoader {
         }
     };
 
-    private SparseArray<AsyncIconLoaderTask> task;
-    private HashMap<Uri, Bitmap> cachedIcons;
+    /**
+     * Number of requests served by a decode already in progress since the process started.
+     */
+    private static final AtomicLong COALESCED_REQUEST_COUNT = new AtomicLong();
+
+    /**
+     * Decodes in progress, by icon uri.
+     */
+    private HashMap<Uri, IconDecodeTask> pendingTasks;
+
+    /**
+     * Listener used to release decodes once completed.
+     */
+    private IconDecodeTask.Listener internalTaskListener;
+
+    /**
+     * Listener used to reprioritize decodes when image views enter or leave the screen.
+     */
+    private View.OnAttachStateChangeListener internalAttachStateListener;
+
+    /**
+     * Memory budget in bytes of the shared icon cache, 0 for the default one.
+     */
+    private int memoryCacheSize;
+
+    /**
+     * Size in bytes of the shared compressed icon cache, 0 for the default one.
+     */
+    private int compressedCacheSize;
 
     /**
-     * Icon loader based on an {@link AsyncTask}
+     * True if decoded icons should be packed into the {@link IconAtlas}.
+     */
+    private boolean useIconAtlas;
+
+    /**
+     * Shape applied to the decoded icons.
+     */
+    private IconShape iconShape;
+
+    /**
+     * Config policy of the decoded icons, provided by the chooser.
+     */
+    private IconBitmapPolicy iconBitmapPolicy;
+
+    /**
+     * Icon loader decoding icons off the ui thread on a dedicated {@link IconDecodeExecutor}.
      * <p/>
-     * No cashing is performed for decoded {@link Bitmap}.
+     * Decoded {@link Bitmap} are kept in a process-wide memory cache shared across chooser launches.
      *
      * @param in parcel.
      */
     protected AsyncIconLoader(Parcel in) {
         this();
+        memoryCacheSize = in.readInt();
+        useIconAtlas = in.readByte() != 0;
+        compressedCacheSize = in.readInt();
+        iconShape = IconShape.values()[in.readInt()];
+        applyMemoryCacheSize();
+        applyCompressedCacheSize();
     }
 
     /**
-     * Icon loader based on an {@link AsyncTask}
+     * Icon loader decoding icons off the ui thread on a dedicated {@link IconDecodeExecutor}.
      * <p/>
-     * No cashing is performed for decoded {@link Bitmap}.
+     * Decoded {@link Bitmap} are kept in a process-wide memory cache shared across chooser launches.
      */
     public AsyncIconLoader() {
-        task = new SparseArray<>();
-        cachedIcons = new HashMap<>();
+        pendingTasks = new HashMap<>();
+        memoryCacheSize = 0;
+        compressedCacheSize = 0;
+        useIconAtlas = false;
+        iconShape = IconShape.NONE;
+        iconBitmapPolicy = IconBitmapPolicy.ARGB_8888;
+        internalTaskListener = new IconDecodeTask.Listener() {
+            @Override
+            public void onTaskCompleted(IconDecodeTask completedTask) {
+                if (pendingTasks.get(completedTask.getUri()) == completedTask) {
+                    pendingTasks.remove(completedTask.getUri());
+                }
+                if (useIconAtlas && pendingTasks.isEmpty()) {
+                    // icons settled, their page won't be modified anymore once published.
+                    IconAtlas.getInstance().publish();
+                }
+            }
+        };
+        internalAttachStateListener = new View.OnAttachStateChangeListener() {
+            @Override
+            public void onViewAttachedToWindow(View v) {
+                updatePriority(v);
+            }
+
+            @Override
+            public void onViewDetachedFromWindow(View v) {
+                updatePriority(v);
+            }
+        };
     }
 
     @Override
@@ -67,134 +160,330 @@ class AsyncIconLoader implements IconLoader {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(memoryCacheSize);
+        dest.writeByte((byte) (useIconAtlas ? 1 : 0));
+        dest.writeInt(compressedCacheSize);
+        dest.writeInt(iconShape.ordinal());
+    }
+
+    /**
+     * Set the memory budget of the process-wide cache in which decoded icons are kept.
+     * <p/>
+     * By default, the budget is a sixteenth of the maximum heap size, up to 8MB.
+     *
+     * @param maxSize memory budget in bytes.
+     * @return current {@link AsyncIconLoader} for method chaining.
+     */
+    public AsyncIconLoader memoryCacheSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Icon memory cache size must be positive : " + maxSize);
+        }
+        memoryCacheSize = maxSize;
+        applyMemoryCacheSize();
+        return this;
+    }
+
+    /**
+     * Set the size of the process-wide cache in which icons are kept compressed outside of the
+     * java heap.
+     * <p/>
+     * Icons evicted from the memory cache are decoded back from this cache instead of being loaded
+     * from the target application again. Relying on it, the memory cache size can be lowered to
+     * reduce the java heap used by the icons, see {@link AsyncIconLoader#memoryCacheSize(int)}.
+     * <p/>
+     * By default, the size is 2MB.
+     *
+     * @param maxSize size in bytes.
+     * @return current {@link AsyncIconLoader} for method chaining.
+     */
+    public AsyncIconLoader compressedCacheSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Icon compressed cache size must be positive : " + maxSize);
+        }
+        compressedCacheSize = maxSize;
+        applyCompressedCacheSize();
+        return this;
+    }
+
+    /**
+     * Pack decoded icons into a few large atlas bitmaps instead of keeping one bitmap per icon.
+     * <p/>
+     * Each displayed icon draws its region of the atlas : the icons of a chooser are uploaded as a
+     * single texture and scrolling a long target list doesn't allocate any bitmap for the icons
+     * already packed. The atlas is shared across chooser launches and its pages are reserved in the
+     * memory cache budget.
+     * <p/>
+     * Disabled by default.
+     *
+     * @param useIconAtlas true to pack decoded icons into an atlas.
+     * @return current {@link AsyncIconLoader} for method chaining.
+     */
+    public AsyncIconLoader useIconAtlas(boolean useIconAtlas) {
+        this.useIconAtlas = useIconAtlas;
+        return this;
+    }
+
+    /**
+     * Set the shape applied to the decoded icons.
+     * <p/>
+     * Icons are shaped once while being decoded and cached shaped, target activities don't clip
+     * them while drawing.
+     * <p/>
+     * {@link IconShape#NONE} by default.
+     *
+     * @param iconShape shape applied to the decoded icons.
+     * @return current {@link AsyncIconLoader} for method chaining.
+     */
+    public AsyncIconLoader iconShape(@NonNull IconShape iconShape) {
+        this.iconShape = iconShape;
+        return this;
+    }
+
+    /**
+     * Set the config policy of the decoded icons.
+     * <p/>
+     * Provided by the chooser from {@link IntentShare#iconBitmapPolicy(IconBitmapPolicy)}.
+     *
+     * @param iconBitmapPolicy config policy of the decoded icons.
+     */
+    void setIconBitmapPolicy(IconBitmapPolicy iconBitmapPolicy) {
+        this.iconBitmapPolicy = iconBitmapPolicy;
     }
 
     @Override
     public void load(Uri iconUri, ImageView imageView) {
-        Bitmap bitmap = cachedIcons.get(iconUri);
+        // shaped icons are cached apart from the original ones.
+        final Uri cacheUri = iconShape.getCacheUri(iconUri);
+        IconRequest pendingRequest = IconRequest.get(imageView);
+        if (pendingRequest != null && pendingRequest.getTask() != null && cacheUri.equals(pendingRequest.getUri())) {
+            // already waiting for this icon.
+            return;
+        }
+        // the image view may still be waiting for a previous icon.
+        cancel(imageView);
+
+        int versionCode = peekVersionCode(imageView.getContext(), cacheUri);
+        if (useIconAtlas) {
+            Drawable packedIcon = IconAtlas.getInstance().getDrawable(cacheUri, versionCode);
+            if (packedIcon != null) {
+                imageView.setImageDrawable(packedIcon);
+                return;
+            }
+        }
+
+        IconMemoryCache memoryCache = IconMemoryCache.getInstance();
+        Bitmap bitmap = memoryCache.get(cacheUri, versionCode);
         if (bitmap != null) {
             imageView.setImageBitmap(bitmap);
+            return;
+        } else if (isKnownMissing(imageView.getContext(), cacheUri)) {
+            // already failed, don't attempt it on every bind.
+            return;
+        }
+
+        // listener is removed first to avoid registering it several times.
+        imageView.removeOnAttachStateChangeListener(internalAttachStateListener);
+        imageView.addOnAttachStateChangeListener(internalAttachStateListener);
+
+        Drawable placeholder = IconPlaceholderCache.getInstance(imageView.getContext()).getPlaceholder(iconUri);
+        if (placeholder != null) {
+            imageView.setImageDrawable(placeholder);
+        }
+
+        IconRequest request = new IconRequest(imageView, cacheUri);
+        request.attach();
+
+        IconDecodeTask iconDecodeTask = pendingTasks.get(cacheUri);
+        if (iconDecodeTask == null) {
+            iconDecodeTask = new IconDecodeTask(
+                    imageView.getContext(),
+                    cacheUri,
+                    internalTaskListener,
+                    useIconAtlas ? IconAtlas.getInstance() : null,
+                    iconShape,
+                    iconBitmapPolicy
+            );
+            pendingTasks.put(cacheUri, iconDecodeTask);
+            iconDecodeTask.addTarget(request);
+            iconDecodeTask.execute();
         } else {
-            AsyncIconLoaderTask asyncIconLoaderTask
-                    = new AsyncIconLoaderTask(iconUri, imageView, cachedIcons);
-            task.put(imageView.hashCode(), asyncIconLoaderTask);
-            asyncIconLoaderTask.execute();
+            if (iconDecodeTask.hasTargets()) {
+                COALESCED_REQUEST_COUNT.incrementAndGet();
+            }
+            iconDecodeTask.addTarget(request);
         }
     }
 
     @Override
     public void cancel(ImageView imageView) {
-        int key = imageView.hashCode();
-        AsyncIconLoaderTask asyncIconLoaderTask = task.get(key);
-        if (asyncIconLoaderTask != null) {
-            asyncIconLoaderTask.cancel(true);
-            task.remove(key);
-        }
-    }
-
-    /**
-     * {@link AsyncTask} used to load an icon off the ui thread.
-     */
-    private static final class AsyncIconLoaderTask extends AsyncTask<Void, Void, Bitmap> {
-
-        private static final String TAG = AsyncIconLoaderTask.class.getSimpleName();
-
-        private final ImageView imageTarget;
-        private final PackageManager packageManager;
-        private final String targetPackage;
-        private final HashMap<Uri, Bitmap> cachedIcons;
-        private final Uri uri;
-        private int iconResId;
-        private int targetSize;
-
-        /**
-         * {@link AsyncTask} used to load an icon off the ui thread.
-         *
-         * @param uri         uri of the icon to load.
-         * @param imageView   image view in which the icon should be loaded.
-         * @param cachedIcons list of bitmap to which the new decoded one will be added.
-         */
-        public AsyncIconLoaderTask(Uri uri, ImageView imageView, HashMap<Uri, Bitmap> cachedIcons) {
-            packageManager = imageView.getContext().getPackageManager();
-            this.uri = uri;
-            targetPackage = uri.getAuthority();
-            iconResId = 0;
-
-            List<String> pathSegments = uri.getPathSegments();
-            if (pathSegments.size() != 1) {
-                Log.e(TAG, "Can't find the icon res id for : " + uri.toString());
-            } else {
-                try {
-                    iconResId = Integer.parseInt(pathSegments.get(0));
-                } catch (NumberFormatException e) {
-                    Log.e(TAG, "Can't parse the icon res id : " + pathSegments.get(0));
+        IconRequest request = IconRequest.get(imageView);
+        if (request == null) {
+            return;
+        }
+        request.detach();
+        IconDecodeTask iconDecodeTask = request.getTask();
+        if (iconDecodeTask != null) {
+            iconDecodeTask.removeTarget(request);
+            // only abort the decode once no one is waiting for the icon anymore.
+            if (!iconDecodeTask.hasTargets()) {
+                iconDecodeTask.cancel();
+                if (pendingTasks.get(iconDecodeTask.getUri()) == iconDecodeTask) {
+                    pendingTasks.remove(iconDecodeTask.getUri());
                 }
             }
+        }
+    }
 
-            imageTarget = imageView;
-            targetSize = imageView.getContext().getResources()
-                    .getDimensionPixelSize(R.dimen.isl_target_activity_view_icon_size);
-            this.cachedIcons = cachedIcons;
+    @Override
+    public void preload(Context context, List<Uri> iconUris) {
+        for (int i = 0; i < iconUris.size(); i++) {
+            prefetch(context, iconUris.get(i));
         }
+    }
 
-        @Override
-        protected Bitmap doInBackground(Void... params) {
-            Resources resources;
-            try {
-                resources = packageManager.getResourcesForApplication(targetPackage);
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Wrong package name, can't access to the resources : " + targetPackage);
-                return null;
-            }
+    @Override
+    public void cancelPreload(Context context, List<Uri> iconUris) {
+        // the decode isn't canceled if an image view started waiting for the icon in the meantime.
+        for (int i = 0; i < iconUris.size(); i++) {
+            cancelPendingPrefetch(iconShape.getCacheUri(iconUris.get(i)));
+        }
+    }
 
-            if (isCancelled()) {
-                return null;
-            }
+    @Override
+    public void pause(Context context) {
+        IconDecodeExecutor.getInstance().pause();
+    }
 
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            options.inPreferredConfig = Bitmap.Config.RGB_565;
-            BitmapFactory.decodeResource(resources, iconResId, options);
+    @Override
+    public void resume(Context context) {
+        IconDecodeExecutor.getInstance().resume();
+    }
 
-            if (isCancelled()) {
-                return null;
-            }
+    @Override
+    public void trim(Context context, int level) {
+        // caches are trimmed by the MemoryTrimHub, only drop the decodes no one is waiting for.
+        if (IconMemoryBudget.getRetainedFraction(level) >= 1f) {
+            return;
+        }
+        ArrayList<Uri> pendingUris = new ArrayList<>(pendingTasks.keySet());
+        for (int i = 0; i < pendingUris.size(); i++) {
+            cancelPendingPrefetch(pendingUris.get(i));
+        }
+    }
 
-            options.inSampleSize = calculateInSampleSize(options, targetSize, targetSize);
-            options.inJustDecodeBounds = false;
+    @Override
+    public IconCacheStats stats(Context context) {
+        IconMemoryCache memoryCache = IconMemoryCache.getInstance();
+        IconCompressedCache compressedCache = IconCompressedCache.getInstance();
+        IconDiskCache diskCache = IconDiskCache.getInstance(context);
+        long decodeCount = IconDecodeTask.getDecodeCount();
+        long meanDecodeTimeMicros = decodeCount == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMicros(IconDecodeTask.getDecodeTimeNanos() / decodeCount);
+        return new IconCacheStats.Builder()
+                .memoryHitCount(memoryCache.hitCount())
+                .memoryMissCount(memoryCache.missCount())
+                .memoryEvictionCount(memoryCache.evictionCount())
+                .memoryBytes(memoryCache.size())
+                .memoryMaxBytes(memoryCache.maxSize())
+                .compressedHitCount(compressedCache.hitCount())
+                .compressedMissCount(compressedCache.missCount())
+                .compressedEvictionCount(compressedCache.evictionCount())
+                .compressedBytes(compressedCache.size())
+                .compressedMaxBytes(compressedCache.maxSize())
+                .diskHitCount(diskCache.hitCount())
+                .diskMissCount(diskCache.missCount())
+                .decodeCount(decodeCount)
+                .meanDecodeTimeMicros(meanDecodeTimeMicros)
+                .coalescedRequestCount(COALESCED_REQUEST_COUNT.get())
+                .build();
+    }
 
-            if (isCancelled()) {
-                return null;
-            } else {
-                return BitmapFactory.decodeResource(resources, iconResId, options);
-            }
+    /**
+     * Decode an icon ahead of its display, with a lower priority than any requested icon.
+     *
+     * @param context context used to access to the target application resources.
+     * @param iconUri uri of the icon to prefetch.
+     */
+    private void prefetch(Context context, Uri iconUri) {
+        final Uri cacheUri = iconShape.getCacheUri(iconUri);
+        IconMemoryCache memoryCache = IconMemoryCache.getInstance();
+        int versionCode = peekVersionCode(context, cacheUri);
+        if (pendingTasks.containsKey(cacheUri)
+                || memoryCache.get(cacheUri, versionCode) != null
+                || isKnownMissing(context, cacheUri)
+                || (useIconAtlas && IconAtlas.getInstance().getDrawable(cacheUri, versionCode) != null)) {
+            return;
         }
+        IconDecodeTask iconDecodeTask = new IconDecodeTask(
+                context,
+                cacheUri,
+                internalTaskListener,
+                useIconAtlas ? IconAtlas.getInstance() : null,
+                iconShape,
+                iconBitmapPolicy
+        );
+        pendingTasks.put(cacheUri, iconDecodeTask);
+        iconDecodeTask.updatePriority();
+        iconDecodeTask.execute();
+    }
 
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            super.onPostExecute(bitmap);
-            if (bitmap != null) {
-                imageTarget.setImageBitmap(bitmap);
-                cachedIcons.put(uri, bitmap);
-            } else {
-                Log.e(TAG, "Failed to load icon from uri : " + uri);
-            }
+    /**
+     * Used to know if an icon already failed to load for the current version of its application.
+     * <p/>
+     * Only relies on the version codes already loaded, decode tasks check the missing icons
+     * once the version code is known.
+     *
+     * @param context context used to access to the resources session.
+     * @param iconUri uri of the icon.
+     * @return true if the icon is known to be missing.
+     */
+    private static boolean isKnownMissing(Context context, Uri iconUri) {
+        int versionCode = peekVersionCode(context, iconUri);
+        return versionCode != -1 && IconMemoryCache.getInstance().isMissing(iconUri, versionCode);
+    }
+
+    /**
+     * Retrieve the version code of the application holding an icon, only if already loaded.
+     * <p/>
+     * Icons are cached per version : an unknown version code is resolved off the ui thread by
+     * the decode task, which delivers the icon from the memory cache if already there.
+     *
+     * @param context context used to access to the resources session.
+     * @param iconUri uri of the icon.
+     * @return version code or -1 if not loaded yet.
+     */
+    private static int peekVersionCode(Context context, Uri iconUri) {
+        String targetPackage = iconUri.getAuthority();
+        if (targetPackage == null) {
+            return -1;
+        }
+        return PackageResourcesSession.getInstance(context).peekVersionCode(targetPackage);
+    }
+
+    private void cancelPendingPrefetch(Uri cacheUri) {
+        IconDecodeTask iconDecodeTask = pendingTasks.get(cacheUri);
+        if (iconDecodeTask != null && !iconDecodeTask.hasTargets()) {
+            iconDecodeTask.cancel();
+            pendingTasks.remove(cacheUri);
+        }
+    }
+
+    private void updatePriority(View imageView) {
+        IconRequest request = IconRequest.get((ImageView) imageView);
+        if (request != null && request.getTask() != null) {
+            request.getTask().updatePriority();
         }
+    }
 
-        private int calculateInSampleSize(
-                BitmapFactory.Options options,
-                int reqWidth,
-                int reqHeight) {
-            final int height = options.outHeight;
-            final int width = options.outWidth;
+    private void applyMemoryCacheSize() {
+        if (memoryCacheSize > 0) {
+            IconMemoryCache.getInstance().setMaxSize(memoryCacheSize);
+        }
+    }
 
-            if (reqWidth == 0 || reqHeight == 0) {
-                return 1;
-            } else {
-                int heightRatio = (int) Math.floor((float) height / (float) reqHeight);
-                int widthRatio = (int) Math.floor((float) width / (float) reqWidth);
-                return Math.min(heightRatio, widthRatio);
-            }
+    private void applyCompressedCacheSize() {
+        if (compressedCacheSize > 0) {
+            IconCompressedCache.getInstance().setMaxSize(compressedCacheSize);
         }
     }
 }
@@ -0,0 +1,74 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.util.List;
+
+/**
+ * {@link IconLoader} giving the chooser a finer control over the loading of the icons.
+ * <p/>
+ * Implementing this interface is optional : the chooser only drives these methods when the
+ * provided loader implements it.
+ */
+public interface ExtendedIconLoader extends IconLoader {
+
+    /**
+     * Called when the icons are likely to be displayed soon, for instance those of the first
+     * target activities once resolved.
+     * <p/>
+     * Preloads should have a lower priority than the icons requested through
+     * {@link IconLoader#load(Uri, android.widget.ImageView)}.
+     *
+     * @param context  context used to load the icons.
+     * @param iconUris uris of the icons to preload.
+     */
+    void preload(Context context, List<Uri> iconUris);
+
+    /**
+     * Called when preloaded icons aren't likely to be displayed soon anymore, for instance once
+     * the rows ahead have been scrolled in the other direction.
+     * <p/>
+     * Icons already requested through {@link IconLoader#load(Uri, android.widget.ImageView)}
+     * should still be delivered.
+     *
+     * @param context  context used to load the icons.
+     * @param iconUris uris of the icons for which the preload should be canceled.
+     */
+    void cancelPreload(Context context, List<Uri> iconUris);
+
+    /**
+     * Called when pending loadings should be paused, for instance once the chooser isn't
+     * visible anymore.
+     * <p/>
+     * See also : {@link ExtendedIconLoader#resume(Context)}
+     *
+     * @param context context used to load the icons.
+     */
+    void pause(Context context);
+
+    /**
+     * Called when paused loadings can be resumed.
+     * <p/>
+     * See also : {@link ExtendedIconLoader#pause(Context)}
+     *
+     * @param context context used to load the icons.
+     */
+    void resume(Context context);
+
+    /**
+     * Called when the memory used by the loader should be reduced.
+     *
+     * @param context context used to load the icons.
+     * @param level   trim level, see {@link android.content.ComponentCallbacks2}.
+     */
+    void trim(Context context, int level);
+
+    /**
+     * Retrieve a snapshot of the cache statistics of the loader.
+     *
+     * @param context context used to load the icons.
+     * @return snapshot of the statistics.
+     */
+    IconCacheStats stats(Context context);
+}
@@ -0,0 +1,298 @@
+package fr.tvbarthel.intentshare;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide atlas packing decoded icons into a few large {@link Bitmap} pages.
+ * <p/>
+ * Icons are copied into a cell of the open page off the ui thread. The open page is never
+ * displayed : once full, once no more icon is being decoded or at the latest
+ * {@link #PUBLISH_DELAY_MILLI} after its first icon, it is published and its icons are displayed
+ * through an {@link IconAtlasDrawable} drawing their region. Published pages are never modified
+ * again, each of them is uploaded as a single texture.
+ * <p/>
+ * Icons are keyed by uri and version code of the target application. Cells are never reused :
+ * once every page is allocated, icons aren't packed anymore and the caller should fallback on
+ * displaying the decoded bitmap. Pages are reserved in the {@link IconMemoryCache} budget and
+ * the bitmaps cached while their page was open are removed from it once published.
+ * <p/>
+ * Under memory pressure, least recently displayed pages are released in proportion to the trim
+ * level.
+ */
+final class IconAtlas implements MemoryTrimHub.Trimmable {
+
+    /**
+     * Number of cells on each row of a page.
+     */
+    private static final int COLUMNS = 8;
+
+    /**
+     * Number of rows of a page.
+     */
+    private static final int ROWS = 4;
+
+    /**
+     * Maximum number of pages.
+     */
+    private static final int MAX_PAGES = 4;
+
+    /**
+     * Maximum delay in milli between packing the first icon of the open page and publishing it.
+     */
+    private static final long PUBLISH_DELAY_MILLI = 500;
+
+    /**
+     * Shared instance.
+     */
+    private static IconAtlas instance;
+
+    private final IconMemoryCache memoryCache;
+
+    /**
+     * Published pages, from the least to the most recently displayed.
+     */
+    private final LinkedHashMap<Bitmap, Boolean> pages;
+    private final HashMap<Uri, Region> regions;
+    private final HashMap<Uri, Region> pendingRegions;
+    private final Handler handler;
+    private final Runnable publishRunnable;
+    private boolean publishScheduled;
+    private Bitmap openPage;
+    private int openCells;
+    private int cellSize;
+
+    /**
+     * Process-wide atlas packing decoded icons.
+     *
+     * @param memoryCache memory cache in which the pages are reserved.
+     */
+    private IconAtlas(IconMemoryCache memoryCache) {
+        this.memoryCache = memoryCache;
+        pages = new LinkedHashMap<>(MAX_PAGES, 0.75f, true);
+        regions = new HashMap<>();
+        pendingRegions = new HashMap<>();
+        handler = new Handler(Looper.getMainLooper());
+        publishRunnable = new Runnable() {
+            @Override
+            public void run() {
+                publish();
+            }
+        };
+        publishScheduled = false;
+        openPage = null;
+        openCells = 0;
+        cellSize = 0;
+    }
+
+    /**
+     * Retrieve the process-wide icon atlas.
+     *
+     * @return shared icon atlas.
+     */
+    public static synchronized IconAtlas getInstance() {
+        if (instance == null) {
+            instance = new IconAtlas(IconMemoryCache.getInstance());
+            MemoryTrimHub.getInstance().register(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Copy a decoded icon into the next free cell of the open page.
+     * <p/>
+     * Should be called off the ui thread. The icon can only be displayed from the atlas once its
+     * page is published, see {@link #publish()}. The region of a previous version of the icon is
+     * forgotten.
+     *
+     * @param iconUri     uri of the icon.
+     * @param versionCode version code of the target application.
+     * @param icon        decoded icon.
+     * @param cellSize    size of a cell in pixel, the displayed size of the icons.
+     * @return true if the icon has been packed, false if it doesn't fit in the atlas.
+     */
+    public synchronized boolean pack(Uri iconUri, int versionCode, Bitmap icon, int cellSize) {
+        if (isPacked(regions, iconUri, versionCode) || isPacked(pendingRegions, iconUri, versionCode)) {
+            return true;
+        }
+        regions.remove(iconUri);
+        pendingRegions.remove(iconUri);
+        if (versionCode == -1 || cellSize <= 0 || icon.getWidth() > cellSize || icon.getHeight() > cellSize) {
+            return false;
+        }
+        if (this.cellSize != cellSize) {
+            // displayed size changed, start over with new pages.
+            evictAll();
+            this.cellSize = cellSize;
+        }
+
+        if (openPage == null) {
+            // argb pages.
+            int pageSize = 4 * COLUMNS * cellSize * ROWS * cellSize;
+            if (pages.size() >= MAX_PAGES || !memoryCache.reserve(pageSize)) {
+                return false;
+            }
+            openPage = Bitmap.createBitmap(COLUMNS * cellSize, ROWS * cellSize, Bitmap.Config.ARGB_8888);
+            openCells = 0;
+        }
+
+        int left = (openCells % COLUMNS) * cellSize;
+        int top = (openCells / COLUMNS) * cellSize;
+        new Canvas(openPage).drawBitmap(icon, left, top, null);
+        openCells++;
+        pendingRegions.put(iconUri, new Region(openPage, versionCode,
+                new Rect(left, top, left + icon.getWidth(), top + icon.getHeight())));
+
+        if (openCells == COLUMNS * ROWS) {
+            publish();
+        } else if (!publishScheduled) {
+            // bounded rather than postponed by each pack : icons keep being packed while scrolling.
+            handler.postDelayed(publishRunnable, PUBLISH_DELAY_MILLI);
+            publishScheduled = true;
+        }
+        return true;
+    }
+
+    /**
+     * Publish the open page : its icons can be displayed from the atlas and it won't be modified
+     * anymore.
+     * <p/>
+     * Called once the page is full, once no more icon is being decoded or once the publish delay
+     * elapsed. Remaining cells of the page are left unused. Bitmaps of the published icons are
+     * removed from the memory cache, the page holding them from now on.
+     */
+    public synchronized void publish() {
+        handler.removeCallbacks(publishRunnable);
+        publishScheduled = false;
+        if (openPage == null || openCells == 0) {
+            return;
+        }
+        pages.put(openPage, Boolean.TRUE);
+        for (Map.Entry<Uri, Region> entry : pendingRegions.entrySet()) {
+            memoryCache.remove(entry.getKey(), entry.getValue().versionCode);
+        }
+        regions.putAll(pendingRegions);
+        pendingRegions.clear();
+        openPage = null;
+        openCells = 0;
+    }
+
+    /**
+     * Retrieve a drawable displaying a packed icon.
+     *
+     * @param iconUri     uri of the icon.
+     * @param versionCode version code of the target application, -1 if not known yet.
+     * @return new drawable displaying the icon region or null if the icon isn't packed in a
+     * published page for the given version.
+     */
+    public synchronized Drawable getDrawable(Uri iconUri, int versionCode) {
+        if (!isPacked(regions, iconUri, versionCode)) {
+            return null;
+        }
+        Region region = regions.get(iconUri);
+        // access order of the pages.
+        pages.get(region.page);
+        return new IconAtlasDrawable(region.page, region.bounds);
+    }
+
+    /**
+     * Forget every packed icon.
+     * <p/>
+     * Pages are released but not recycled since they may still be displayed.
+     */
+    public synchronized void evictAll() {
+        ArrayList<Bitmap> released = new ArrayList<>(pages.keySet());
+        if (openPage != null) {
+            released.add(openPage);
+        }
+        for (int i = 0; i < released.size(); i++) {
+            releasePage(released.get(i));
+        }
+    }
+
+    @Override
+    public synchronized void trim(float retainedFraction) {
+        // least recently displayed pages first, the open page being the most recent one.
+        ArrayList<Bitmap> allocated = new ArrayList<>(pages.keySet());
+        if (openPage != null) {
+            allocated.add(openPage);
+        }
+        int released = allocated.size() - Math.round(allocated.size() * retainedFraction);
+        for (int i = 0; i < released; i++) {
+            releasePage(allocated.get(i));
+        }
+    }
+
+    /**
+     * Retrieve the memory used by the allocated pages.
+     *
+     * @return size in bytes.
+     */
+    public synchronized int size() {
+        int size = openPage == null ? 0 : openPage.getByteCount();
+        for (Bitmap page : pages.keySet()) {
+            size += page.getByteCount();
+        }
+        return size;
+    }
+
+    private void releasePage(Bitmap page) {
+        removeRegions(regions, page);
+        removeRegions(pendingRegions, page);
+        if (page == openPage) {
+            openPage = null;
+            openCells = 0;
+        } else {
+            pages.remove(page);
+        }
+        memoryCache.release(page.getByteCount());
+    }
+
+    private static boolean isPacked(HashMap<Uri, Region> regions, Uri iconUri, int versionCode) {
+        Region region = regions.get(iconUri);
+        return region != null && versionCode != -1 && region.versionCode == versionCode;
+    }
+
+    private static void removeRegions(HashMap<Uri, Region> regions, Bitmap page) {
+        Iterator<Map.Entry<Uri, Region>> iterator = regions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().page == page) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Location of a packed icon.
+     */
+    private static final class Region {
+
+        private final Bitmap page;
+        private final int versionCode;
+        private final Rect bounds;
+
+        /**
+         * Location of a packed icon.
+         *
+         * @param page        page holding the icon.
+         * @param versionCode version code of the target application when the icon was packed.
+         * @param bounds      bounds of the icon inside the page.
+         */
+        Region(Bitmap page, int versionCode, Rect bounds) {
+            this.page = page;
+            this.versionCode = versionCode;
+            this.bounds = bounds;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package fr.tvbarthel.intentshare;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Drawable displaying the region of an {@link IconAtlas} page holding an icon.
+ */
+final class IconAtlasDrawable extends Drawable {
+
+    private final Bitmap page;
+    private final Rect region;
+    private final Paint paint;
+
+    /**
+     * Drawable displaying the region of an {@link IconAtlas} page holding an icon.
+     *
+     * @param page   page holding the icon.
+     * @param region bounds of the icon inside the page.
+     */
+    IconAtlasDrawable(Bitmap page, Rect region) {
+        this.page = page;
+        this.region = region;
+        paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        canvas.drawBitmap(page, region, getBounds(), paint);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return region.width();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return region.height();
+    }
+}
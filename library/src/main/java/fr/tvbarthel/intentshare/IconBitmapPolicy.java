@@ -0,0 +1,66 @@
+package fr.tvbarthel.intentshare;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * Policy defining the {@link Bitmap.Config} of the icons decoded by the default icon loader.
+ * <p/>
+ * See also : {@link IntentShare#iconBitmapPolicy(IconBitmapPolicy)}
+ */
+public enum IconBitmapPolicy {
+
+    /**
+     * Icons are kept as {@link Bitmap.Config#ARGB_8888} on the java heap.
+     */
+    ARGB_8888,
+
+    /**
+     * Opaque icons are converted to {@link Bitmap.Config#RGB_565}, halving their memory cost.
+     * <p/>
+     * Icons with transparent pixels, such as round icons, are kept as ARGB_8888.
+     */
+    RGB_565_OPAQUE,
+
+    /**
+     * Icons are uploaded as hardware bitmaps, taking them off the java heap.
+     * <p/>
+     * Only available from Android O, icons are kept as ARGB_8888 on previous versions.
+     */
+    HARDWARE;
+
+    /**
+     * Apply the policy to a decoded icon.
+     * <p/>
+     * Should not be called from the ui thread.
+     *
+     * @param icon decoded {@link Bitmap.Config#ARGB_8888} icon.
+     * @return icon matching the policy, the given one if no conversion was needed.
+     */
+    Bitmap apply(Bitmap icon) {
+        Bitmap converted = null;
+        if (this == RGB_565_OPAQUE && isOpaque(icon)) {
+            converted = icon.copy(Bitmap.Config.RGB_565, false);
+        } else if (this == HARDWARE && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            converted = icon.copy(Bitmap.Config.HARDWARE, false);
+        }
+        return converted == null ? icon : converted;
+    }
+
+    private static boolean isOpaque(Bitmap icon) {
+        if (!icon.hasAlpha()) {
+            return true;
+        }
+        int width = icon.getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < icon.getHeight(); y++) {
+            icon.getPixels(row, 0, width, 0, y, width, 1);
+            for (int pixel : row) {
+                if (pixel >>> 24 != 0xFF) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,136 @@
+package fr.tvbarthel.intentshare;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+
+/**
+ * Process-wide pool of mutable {@link Bitmap} reused as decoding buffers through
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}.
+ * <p/>
+ * Only intermediate decoding buffers must be released to the pool : icons delivered to the
+ * image views are still displayed and can't be reused.
+ * <p/>
+ * Under memory pressure, oldest pooled bitmaps are recycled in proportion to the trim level.
+ */
+final class IconBitmapPool implements MemoryTrimHub.Trimmable {
+
+    /**
+     * Maximum number of pooled bitmaps, roughly one per decoding thread.
+     */
+    private static final int MAX_POOL_SIZE = 4;
+
+    /**
+     * Shared instance.
+     */
+    private static IconBitmapPool instance;
+
+    private final ArrayList<Bitmap> pool;
+
+    /**
+     * Process-wide pool of mutable {@link Bitmap}.
+     */
+    private IconBitmapPool() {
+        pool = new ArrayList<>(MAX_POOL_SIZE);
+    }
+
+    /**
+     * Retrieve the process-wide bitmap pool.
+     *
+     * @return shared bitmap pool.
+     */
+    public static synchronized IconBitmapPool getInstance() {
+        if (instance == null) {
+            instance = new IconBitmapPool();
+            MemoryTrimHub.getInstance().register(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Retrieve a pooled bitmap which can be used as decoding buffer for the given dimensions.
+     * <p/>
+     * Before KitKat, a bitmap can only be reused for a decode with the exact same dimensions.
+     *
+     * @param width  width of the decoded bitmap.
+     * @param height height of the decoded bitmap.
+     * @param config config of the decoded bitmap.
+     * @return reusable bitmap removed from the pool or null if none matches.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        for (int i = 0; i < pool.size(); i++) {
+            Bitmap candidate = pool.get(i);
+            if (canReuse(candidate, width, height, config)) {
+                return pool.remove(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Release a decoding buffer to the pool.
+     * <p/>
+     * The bitmap is recycled if the pool is full.
+     *
+     * @param bitmap bitmap which is no longer used.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        if (pool.size() >= MAX_POOL_SIZE) {
+            pool.remove(0).recycle();
+        }
+        pool.add(bitmap);
+    }
+
+    /**
+     * Remove every pooled bitmap.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < pool.size(); i++) {
+            pool.get(i).recycle();
+        }
+        pool.clear();
+    }
+
+    @Override
+    public synchronized void trim(float retainedFraction) {
+        int retained = (int) (pool.size() * retainedFraction);
+        while (pool.size() > retained) {
+            pool.remove(0).recycle();
+        }
+    }
+
+    /**
+     * Retrieve the memory used by the pooled bitmaps.
+     *
+     * @return size in bytes.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (int i = 0; i < pool.size(); i++) {
+            size += pool.get(i).getByteCount();
+        }
+        return size;
+    }
+
+    private static boolean canReuse(Bitmap candidate, int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return candidate.getAllocationByteCount() >= width * height * getBytesPerPixel(config);
+        }
+        return candidate.getWidth() == width
+                && candidate.getHeight() == height
+                && candidate.getConfig() == config;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,432 @@
+package fr.tvbarthel.intentshare;
+
+/**
+ * Snapshot of the cache statistics of an {@link ExtendedIconLoader}.
+ * <p/>
+ * Icons are looked up through up to three cache tiers : the memory cache holding decoded icons,
+ * the compressed cache holding encoded icons in memory and the disk cache. Counters are
+ * accumulated since the process started or since the tier was last resized.
+ * <p/>
+ * Values a loader can't provide are set to {@link #UNKNOWN}.
+ */
+public final class IconCacheStats {
+
+    /**
+     * Value of the statistics which can't be provided by the loader.
+     */
+    public static final long UNKNOWN = -1;
+
+    private final long memoryHitCount;
+    private final long memoryMissCount;
+    private final long memoryEvictionCount;
+    private final long memoryBytes;
+    private final long memoryMaxBytes;
+    private final long compressedHitCount;
+    private final long compressedMissCount;
+    private final long compressedEvictionCount;
+    private final long compressedBytes;
+    private final long compressedMaxBytes;
+    private final long diskHitCount;
+    private final long diskMissCount;
+    private final long decodeCount;
+    private final long meanDecodeTimeMicros;
+    private final long coalescedRequestCount;
+
+    /**
+     * Snapshot of the cache statistics of an {@link ExtendedIconLoader}.
+     *
+     * @param builder builder holding the statistics.
+     */
+    private IconCacheStats(Builder builder) {
+        memoryHitCount = builder.memoryHitCount;
+        memoryMissCount = builder.memoryMissCount;
+        memoryEvictionCount = builder.memoryEvictionCount;
+        memoryBytes = builder.memoryBytes;
+        memoryMaxBytes = builder.memoryMaxBytes;
+        compressedHitCount = builder.compressedHitCount;
+        compressedMissCount = builder.compressedMissCount;
+        compressedEvictionCount = builder.compressedEvictionCount;
+        compressedBytes = builder.compressedBytes;
+        compressedMaxBytes = builder.compressedMaxBytes;
+        diskHitCount = builder.diskHitCount;
+        diskMissCount = builder.diskMissCount;
+        decodeCount = builder.decodeCount;
+        meanDecodeTimeMicros = builder.meanDecodeTimeMicros;
+        coalescedRequestCount = builder.coalescedRequestCount;
+    }
+
+    /**
+     * Number of icons loaded from the memory cache.
+     *
+     * @return memory cache hit count.
+     */
+    public long getMemoryHitCount() {
+        return memoryHitCount;
+    }
+
+    /**
+     * Number of icons which weren't found in the memory cache.
+     *
+     * @return memory cache miss count.
+     */
+    public long getMemoryMissCount() {
+        return memoryMissCount;
+    }
+
+    /**
+     * Number of icons evicted from the memory cache.
+     *
+     * @return memory cache eviction count.
+     */
+    public long getMemoryEvictionCount() {
+        return memoryEvictionCount;
+    }
+
+    /**
+     * Memory currently used by the icons in the memory cache.
+     *
+     * @return size in bytes.
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Memory budget of the memory cache.
+     *
+     * @return size in bytes.
+     */
+    public long getMemoryMaxBytes() {
+        return memoryMaxBytes;
+    }
+
+    /**
+     * Number of icons loaded from the compressed cache.
+     *
+     * @return compressed cache hit count.
+     */
+    public long getCompressedHitCount() {
+        return compressedHitCount;
+    }
+
+    /**
+     * Number of icons which weren't found in the compressed cache.
+     *
+     * @return compressed cache miss count.
+     */
+    public long getCompressedMissCount() {
+        return compressedMissCount;
+    }
+
+    /**
+     * Number of icons evicted from the compressed cache.
+     *
+     * @return compressed cache eviction count.
+     */
+    public long getCompressedEvictionCount() {
+        return compressedEvictionCount;
+    }
+
+    /**
+     * Memory currently used by the icons in the compressed cache.
+     *
+     * @return size in bytes.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * Memory budget of the compressed cache.
+     *
+     * @return size in bytes.
+     */
+    public long getCompressedMaxBytes() {
+        return compressedMaxBytes;
+    }
+
+    /**
+     * Number of icons loaded from the disk cache.
+     *
+     * @return disk cache hit count.
+     */
+    public long getDiskHitCount() {
+        return diskHitCount;
+    }
+
+    /**
+     * Number of icons which weren't found in the disk cache.
+     *
+     * @return disk cache miss count.
+     */
+    public long getDiskMissCount() {
+        return diskMissCount;
+    }
+
+    /**
+     * Number of icons decoded from the target application resources.
+     *
+     * @return decode count.
+     */
+    public long getDecodeCount() {
+        return decodeCount;
+    }
+
+    /**
+     * Mean time spent to decode an icon from the target application resources.
+     *
+     * @return mean decode time in microseconds.
+     */
+    public long getMeanDecodeTimeMicros() {
+        return meanDecodeTimeMicros;
+    }
+
+    /**
+     * Number of requests served by the load of an icon already requested for another image view.
+     *
+     * @return coalesced request count.
+     */
+    public long getCoalescedRequestCount() {
+        return coalescedRequestCount;
+    }
+
+    @Override
+    public String toString() {
+        return "IconCacheStats{"
+                + "memoryHitCount=" + memoryHitCount
+                + ", memoryMissCount=" + memoryMissCount
+                + ", memoryEvictionCount=" + memoryEvictionCount
+                + ", memoryBytes=" + memoryBytes
+                + ", memoryMaxBytes=" + memoryMaxBytes
+                + ", compressedHitCount=" + compressedHitCount
+                + ", compressedMissCount=" + compressedMissCount
+                + ", compressedEvictionCount=" + compressedEvictionCount
+                + ", compressedBytes=" + compressedBytes
+                + ", compressedMaxBytes=" + compressedMaxBytes
+                + ", diskHitCount=" + diskHitCount
+                + ", diskMissCount=" + diskMissCount
+                + ", decodeCount=" + decodeCount
+                + ", meanDecodeTimeMicros=" + meanDecodeTimeMicros
+                + ", coalescedRequestCount=" + coalescedRequestCount
+                + '}';
+    }
+
+    /**
+     * Builder used by the loaders to provide their statistics.
+     */
+    public static final class Builder {
+
+        private long memoryHitCount;
+        private long memoryMissCount;
+        private long memoryEvictionCount;
+        private long memoryBytes;
+        private long memoryMaxBytes;
+        private long compressedHitCount;
+        private long compressedMissCount;
+        private long compressedEvictionCount;
+        private long compressedBytes;
+        private long compressedMaxBytes;
+        private long diskHitCount;
+        private long diskMissCount;
+        private long decodeCount;
+        private long meanDecodeTimeMicros;
+        private long coalescedRequestCount;
+
+        /**
+         * Builder used by the loaders to provide their statistics.
+         * <p/>
+         * Every statistic is {@link #UNKNOWN} until set.
+         */
+        public Builder() {
+            memoryHitCount = UNKNOWN;
+            memoryMissCount = UNKNOWN;
+            memoryEvictionCount = UNKNOWN;
+            memoryBytes = UNKNOWN;
+            memoryMaxBytes = UNKNOWN;
+            compressedHitCount = UNKNOWN;
+            compressedMissCount = UNKNOWN;
+            compressedEvictionCount = UNKNOWN;
+            compressedBytes = UNKNOWN;
+            compressedMaxBytes = UNKNOWN;
+            diskHitCount = UNKNOWN;
+            diskMissCount = UNKNOWN;
+            decodeCount = UNKNOWN;
+            meanDecodeTimeMicros = UNKNOWN;
+            coalescedRequestCount = UNKNOWN;
+        }
+
+        /**
+         * Set the number of icons loaded from the memory cache.
+         *
+         * @param memoryHitCount memory cache hit count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder memoryHitCount(long memoryHitCount) {
+            this.memoryHitCount = memoryHitCount;
+            return this;
+        }
+
+        /**
+         * Set the number of icons which weren't found in the memory cache.
+         *
+         * @param memoryMissCount memory cache miss count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder memoryMissCount(long memoryMissCount) {
+            this.memoryMissCount = memoryMissCount;
+            return this;
+        }
+
+        /**
+         * Set the number of icons evicted from the memory cache.
+         *
+         * @param memoryEvictionCount memory cache eviction count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder memoryEvictionCount(long memoryEvictionCount) {
+            this.memoryEvictionCount = memoryEvictionCount;
+            return this;
+        }
+
+        /**
+         * Set the memory currently used by the icons in the memory cache.
+         *
+         * @param memoryBytes size in bytes.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder memoryBytes(long memoryBytes) {
+            this.memoryBytes = memoryBytes;
+            return this;
+        }
+
+        /**
+         * Set the memory budget of the memory cache.
+         *
+         * @param memoryMaxBytes size in bytes.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder memoryMaxBytes(long memoryMaxBytes) {
+            this.memoryMaxBytes = memoryMaxBytes;
+            return this;
+        }
+
+        /**
+         * Set the number of icons loaded from the compressed cache.
+         *
+         * @param compressedHitCount compressed cache hit count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder compressedHitCount(long compressedHitCount) {
+            this.compressedHitCount = compressedHitCount;
+            return this;
+        }
+
+        /**
+         * Set the number of icons which weren't found in the compressed cache.
+         *
+         * @param compressedMissCount compressed cache miss count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder compressedMissCount(long compressedMissCount) {
+            this.compressedMissCount = compressedMissCount;
+            return this;
+        }
+
+        /**
+         * Set the number of icons evicted from the compressed cache.
+         *
+         * @param compressedEvictionCount compressed cache eviction count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder compressedEvictionCount(long compressedEvictionCount) {
+            this.compressedEvictionCount = compressedEvictionCount;
+            return this;
+        }
+
+        /**
+         * Set the memory currently used by the icons in the compressed cache.
+         *
+         * @param compressedBytes size in bytes.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder compressedBytes(long compressedBytes) {
+            this.compressedBytes = compressedBytes;
+            return this;
+        }
+
+        /**
+         * Set the memory budget of the compressed cache.
+         *
+         * @param compressedMaxBytes size in bytes.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder compressedMaxBytes(long compressedMaxBytes) {
+            this.compressedMaxBytes = compressedMaxBytes;
+            return this;
+        }
+
+        /**
+         * Set the number of icons loaded from the disk cache.
+         *
+         * @param diskHitCount disk cache hit count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder diskHitCount(long diskHitCount) {
+            this.diskHitCount = diskHitCount;
+            return this;
+        }
+
+        /**
+         * Set the number of icons which weren't found in the disk cache.
+         *
+         * @param diskMissCount disk cache miss count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder diskMissCount(long diskMissCount) {
+            this.diskMissCount = diskMissCount;
+            return this;
+        }
+
+        /**
+         * Set the number of icons decoded from the target application resources.
+         *
+         * @param decodeCount decode count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder decodeCount(long decodeCount) {
+            this.decodeCount = decodeCount;
+            return this;
+        }
+
+        /**
+         * Set the mean time spent to decode an icon from the target application resources.
+         *
+         * @param meanDecodeTimeMicros mean decode time in microseconds.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder meanDecodeTimeMicros(long meanDecodeTimeMicros) {
+            this.meanDecodeTimeMicros = meanDecodeTimeMicros;
+            return this;
+        }
+
+        /**
+         * Set the number of requests served by the load of an icon already requested for another image view.
+         *
+         * @param coalescedRequestCount coalesced request count.
+         * @return current {@link Builder} for method chaining.
+         */
+        public Builder coalescedRequestCount(long coalescedRequestCount) {
+            this.coalescedRequestCount = coalescedRequestCount;
+            return this;
+        }
+
+        /**
+         * Build the snapshot.
+         *
+         * @return snapshot of the statistics.
+         */
+        public IconCacheStats build() {
+            return new IconCacheStats(this);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package fr.tvbarthel.intentshare;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.MemoryFile;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache keeping {@link TargetActivity} icons compressed outside of the java heap.
+ * <p/>
+ * Second level below the {@link IconMemoryCache} : icons are stored as png inside a single shared
+ * memory region and decoded back into a pooled bitmap when requested again. Icons evicted from
+ * the memory cache are then served without accessing to the target application resources nor
+ * to the disk.
+ * <p/>
+ * The region is written as a ring : oldest icons are overwritten first once the region is full.
+ * The region is released under high memory pressure.
+ */
+final class IconCompressedCache implements MemoryTrimHub.Trimmable {
+
+    /**
+     * Log cat.
+     */
+    private static final String TAG = IconCompressedCache.class.getSimpleName();
+
+    /**
+     * Default size of the shared memory region, in bytes.
+     */
+    private static final int DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * Name of the shared memory region.
+     */
+    private static final String REGION_NAME = "isl_icons";
+
+    /**
+     * Retained fraction below which the shared memory region is released.
+     */
+    private static final float TRIM_THRESHOLD = 0.25f;
+
+    /**
+     * Compression quality, ignored by the lossless png encoder.
+     */
+    private static final int QUALITY = 100;
+
+    /**
+     * Config of the decoded icons.
+     */
+    private static final Bitmap.Config CONFIG = Bitmap.Config.ARGB_8888;
+
+    /**
+     * Shared instance.
+     */
+    private static IconCompressedCache instance;
+
+    /**
+     * Stored icons by key, from the oldest to the most recently written.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+    private final IconBitmapPool bitmapPool;
+    private MemoryFile region;
+    private int maxSize;
+    private int writePosition;
+    private int size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Process-wide cache keeping icons compressed outside of the java heap.
+     *
+     * @param maxSize size of the shared memory region in bytes.
+     */
+    private IconCompressedCache(int maxSize) {
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<>();
+        bitmapPool = IconBitmapPool.getInstance();
+        writePosition = 0;
+        size = 0;
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+
+    /**
+     * Retrieve the process-wide compressed icon cache.
+     *
+     * @return shared compressed icon cache.
+     */
+    public static synchronized IconCompressedCache getInstance() {
+        if (instance == null) {
+            instance = new IconCompressedCache(DEFAULT_MAX_SIZE);
+            MemoryTrimHub.getInstance().register(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Decode a stored icon.
+     * <p/>
+     * Should not be called from the ui thread.
+     *
+     * @param key key of the icon, see {@link IconDiskCache#buildKey(String, int, int, int, int)}
+     * @return decoded icon or null if not stored.
+     */
+    public Bitmap get(String key) {
+        Entry entry;
+        byte[] encoded;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            encoded = new byte[entry.length];
+            try {
+                region.readBytes(encoded, entry.offset, 0, entry.length);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read compressed icon : " + key, e);
+                remove(key);
+                return null;
+            }
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = CONFIG;
+        options.inMutable = true;
+        options.inBitmap = bitmapPool.get(entry.width, entry.height, CONFIG);
+        try {
+            return BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        } catch (IllegalArgumentException e) {
+            // pooled buffer rejected by the decoder.
+            bitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(encoded, 0, encoded.length, options);
+        }
+    }
+
+    /**
+     * Store an icon, overwriting the oldest ones if the region is full.
+     * <p/>
+     * Should not be called from the ui thread.
+     *
+     * @param key  key of the icon, see {@link IconDiskCache#buildKey(String, int, int, int, int)}
+     * @param icon icon to store.
+     */
+    public void put(String key, Bitmap icon) {
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+        }
+        byte[] encoded = encode(icon);
+        if (encoded != null) {
+            put(key, encoded, icon.getWidth(), icon.getHeight());
+        }
+    }
+
+    /**
+     * Store an icon already compressed, overwriting the oldest ones if the region is full.
+     *
+     * @param key     key of the icon, see {@link IconDiskCache#buildKey(String, int, int, int, int)}
+     * @param encoded icon compressed with {@link #encode(Bitmap)}.
+     * @param width   width of the icon.
+     * @param height  height of the icon.
+     */
+    public synchronized void put(String key, byte[] encoded, int width, int height) {
+        if (!entries.containsKey(key)) {
+            write(key, encoded, width, height);
+        }
+    }
+
+    /**
+     * Compress an icon as png, the format stored by this cache and by the {@link IconDiskCache}.
+     * <p/>
+     * Should not be called from the ui thread.
+     *
+     * @param icon icon to compress.
+     * @return compressed icon or null if the icon can't be compressed.
+     */
+    public static byte[] encode(Bitmap icon) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (!icon.compress(Bitmap.CompressFormat.PNG, QUALITY, output)) {
+            return null;
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Used to know if an icon is stored.
+     *
+     * @param key key of the icon.
+     * @return true if the icon is stored.
+     */
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Change the size of the shared memory region.
+     * <p/>
+     * Stored icons are dropped if the size changes.
+     *
+     * @param maxSize new size of the shared memory region in bytes.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Icon compressed cache size must be positive : " + maxSize);
+        }
+        if (maxSize == this.maxSize) {
+            return;
+        }
+        release();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Retrieve the size of the shared memory region.
+     *
+     * @return size in bytes.
+     */
+    public synchronized int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Retrieve the size of the stored icons.
+     *
+     * @return size in bytes.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Retrieve the number of icons found in the cache.
+     *
+     * @return hit count.
+     */
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Retrieve the number of icons not found in the cache.
+     *
+     * @return miss count.
+     */
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    /**
+     * Retrieve the number of icons evicted or overwritten.
+     *
+     * @return eviction count.
+     */
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Remove every stored icon and release the shared memory region.
+     */
+    public synchronized void evictAll() {
+        release();
+    }
+
+    @Override
+    public synchronized void trim(float retainedFraction) {
+        // evicting a part of the icons wouldn't release any page of the region.
+        if (retainedFraction <= TRIM_THRESHOLD) {
+            release();
+        }
+    }
+
+    private void write(String key, byte[] encoded, int width, int height) {
+        if (encoded.length > maxSize) {
+            return;
+        }
+        if (region == null) {
+            try {
+                region = new MemoryFile(REGION_NAME, maxSize);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to allocate the compressed icon region.", e);
+                return;
+            }
+        }
+        if (writePosition + encoded.length > maxSize) {
+            // wrap around, icons left at the end of the region are the oldest ones.
+            evictFrom(writePosition);
+            writePosition = 0;
+        }
+        evictOverlapping(writePosition, writePosition + encoded.length);
+        try {
+            region.writeBytes(encoded, 0, writePosition, encoded.length);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write compressed icon : " + key, e);
+            return;
+        }
+        entries.put(key, new Entry(writePosition, encoded.length, width, height));
+        writePosition += encoded.length;
+        size += encoded.length;
+    }
+
+    private void evictFrom(int offset) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.offset >= offset) {
+                size -= entry.length;
+                evictionCount++;
+                iterator.remove();
+            }
+        }
+    }
+
+    private void evictOverlapping(int start, int end) {
+        // oldest entries are the next ones in the ring.
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.offset >= end || entry.offset + entry.length <= start) {
+                break;
+            }
+            size -= entry.length;
+            evictionCount++;
+            iterator.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.length;
+        }
+    }
+
+    private void release() {
+        evictionCount += entries.size();
+        entries.clear();
+        writePosition = 0;
+        size = 0;
+        if (region != null) {
+            region.close();
+            region = null;
+        }
+    }
+
+    /**
+     * Location of a stored icon inside the shared memory region.
+     */
+    private static final class Entry {
+
+        private final int offset;
+        private final int length;
+        private final int width;
+        private final int height;
+
+        private Entry(int offset, int length, int width, int height) {
+            this.offset = offset;
+            this.length = length;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
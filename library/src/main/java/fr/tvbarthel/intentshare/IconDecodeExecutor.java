@@ -0,0 +1,257 @@
+package fr.tvbarthel.intentshare;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide executor dedicated to icon decoding.
+ * <p/>
+ * Decodes run on background priority threads, sized according to the available cores, and are
+ * picked according to their {@link Task#getPriority()} instead of their submission order.
+ * <p/>
+ * Decodes can be paused : decodes picked while paused are parked until resumed. Once resumed,
+ * parked decodes whose image views are off screen, for instance kept in the view cache of a list
+ * after a fling, stay parked until one of their image views is displayed again or until they are
+ * removed.
+ */
+final class IconDecodeExecutor {
+
+    /**
+     * Priority of a decode for an icon currently displayed on screen.
+     */
+    static final int PRIORITY_VISIBLE = 0;
+
+    /**
+     * Priority of a decode for an icon which isn't displayed on screen.
+     */
+    static final int PRIORITY_OFFSCREEN = 1;
+
+    /**
+     * Priority of a decode requested ahead of any display.
+     */
+    static final int PRIORITY_PREFETCH = 2;
+
+    /**
+     * Maximum number of decoding threads.
+     */
+    private static final int MAX_POOL_SIZE = 4;
+
+    /**
+     * Idle time before a decoding thread is released, in seconds.
+     */
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Shared instance.
+     */
+    private static IconDecodeExecutor instance;
+
+    private final ThreadPoolExecutor executor;
+    private final ArrayList<Task> parkedTasks;
+    private boolean paused;
+
+    /**
+     * Process-wide executor dedicated to icon decoding.
+     *
+     * @param poolSize number of decoding threads.
+     */
+    private IconDecodeExecutor(int poolSize) {
+        executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        parkedTasks = new ArrayList<>();
+        paused = false;
+    }
+
+    /**
+     * Retrieve the process-wide icon decode executor.
+     *
+     * @return shared icon decode executor.
+     */
+    public static synchronized IconDecodeExecutor getInstance() {
+        if (instance == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            // keep a core for the ui thread.
+            instance = new IconDecodeExecutor(Math.max(1, Math.min(cores - 1, MAX_POOL_SIZE)));
+        }
+        return instance;
+    }
+
+    /**
+     * Schedule a decode.
+     *
+     * @param task decode to schedule.
+     */
+    public void execute(Task task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Remove a decode which hasn't started yet.
+     *
+     * @param task decode to remove.
+     * @return true if the decode was still waiting to be executed.
+     */
+    public boolean remove(Task task) {
+        synchronized (this) {
+            if (parkedTasks.remove(task)) {
+                return true;
+            }
+        }
+        return executor.remove(task);
+    }
+
+    /**
+     * Pause the decodes, decodes already running aren't impacted.
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * Resume the decodes, parked decodes are scheduled again except the off screen ones.
+     * <p/>
+     * Off screen decodes stay parked until reprioritized, see {@link #reprioritize(Task, int)}.
+     */
+    public void resume() {
+        ArrayList<Task> resumedTasks = new ArrayList<>();
+        synchronized (this) {
+            paused = false;
+            for (int i = parkedTasks.size() - 1; i >= 0; i--) {
+                if (parkedTasks.get(i).getPriority() != PRIORITY_OFFSCREEN) {
+                    resumedTasks.add(parkedTasks.remove(i));
+                }
+            }
+        }
+        for (int i = resumedTasks.size() - 1; i >= 0; i--) {
+            executor.execute(resumedTasks.get(i));
+        }
+    }
+
+    /**
+     * Park a decode picked while the decodes are paused.
+     * <p/>
+     * Should be called by the decodes before starting.
+     *
+     * @param task decode about to start.
+     * @return true if the decode has been parked and should not start.
+     */
+    synchronized boolean park(Task task) {
+        if (paused) {
+            parkedTasks.add(task);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Change the priority of a decode.
+     * <p/>
+     * Decodes which are already running aren't impacted. Off screen decodes left parked once
+     * resumed are scheduled again as soon as they aren't off screen anymore.
+     *
+     * @param task     decode to reprioritize.
+     * @param priority new priority.
+     */
+    public void reprioritize(Task task, int priority) {
+        if (task.getPriority() == priority) {
+            return;
+        }
+        boolean unparked = false;
+        synchronized (this) {
+            if (parkedTasks.contains(task)) {
+                task.priority = priority;
+                if (paused || priority == PRIORITY_OFFSCREEN) {
+                    return;
+                }
+                parkedTasks.remove(task);
+                unparked = true;
+            }
+        }
+        if (unparked) {
+            executor.execute(task);
+            return;
+        }
+        // the queue is only sorted on insertion.
+        if (executor.remove(task)) {
+            task.priority = priority;
+            executor.execute(task);
+        } else {
+            task.priority = priority;
+        }
+    }
+
+    /**
+     * Decode ordered by priority and then by submission order.
+     */
+    abstract static class Task implements Runnable, Comparable<Task> {
+
+        /**
+         * Used to keep submission order between decodes with the same priority.
+         */
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        private final long sequence;
+        private volatile int priority;
+
+        /**
+         * Decode ordered by priority and then by submission order.
+         *
+         * @param priority initial priority.
+         */
+        Task(int priority) {
+            this.priority = priority;
+            this.sequence = SEQUENCE.getAndIncrement();
+        }
+
+        /**
+         * Priority of the decode, lower values are executed first.
+         *
+         * @return priority of the decode.
+         */
+        int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public int compareTo(@NonNull Task another) {
+            if (priority != another.priority) {
+                return priority < another.priority ? -1 : 1;
+            }
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Factory providing decoding threads running with a background priority.
+     */
+    private static final class BackgroundThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "isl-icon-decoder-" + count.incrementAndGet());
+        }
+    }
+}
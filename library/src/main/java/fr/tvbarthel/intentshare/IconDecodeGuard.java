@@ -0,0 +1,113 @@
+package fr.tvbarthel.intentshare;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Limits applied by the {@link IconDecoder} to icon files it can't trust.
+ * <p/>
+ * Icons come from any installed application : their files may declare huge or empty dimensions,
+ * or not be decodable at all. Decodes are sub sampled until they fit in a pixel budget and
+ * encoded icons are only buffered up to a maximum size.
+ */
+final class IconDecodeGuard {
+
+    /**
+     * Minimum pixel budget of a decode, whatever the displayed size is.
+     */
+    static final int MIN_PIXEL_BUDGET = 512 * 512;
+
+    /**
+     * Maximum size of an encoded icon buffered at once, in bytes.
+     */
+    static final int MAX_ENCODED_BYTES = 1024 * 1024;
+
+    /**
+     * Size of the buffer used to read icon files.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Non instantiable class.
+     */
+    private IconDecodeGuard() {
+
+    }
+
+    /**
+     * Used to know if the dimensions read from an icon file header can be decoded.
+     *
+     * @param width  width declared by the icon file.
+     * @param height height declared by the icon file.
+     * @return true if both dimensions are positive.
+     */
+    static boolean hasValidBounds(int width, int height) {
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * Maximum number of pixels a decode can allocate for the given displayed size.
+     * <p/>
+     * Large enough for any icon sampled above the displayed size, see
+     * {@link IconDecoder#calculateInSampleSize(int, int, int, int)}.
+     *
+     * @param targetSize displayed size of the icon in pixel.
+     * @return pixel budget.
+     */
+    static long getPixelBudget(int targetSize) {
+        return Math.max(MIN_PIXEL_BUDGET, 4L * targetSize * targetSize);
+    }
+
+    /**
+     * Compute the power of two sample size keeping the sampled icon above the displayed size and
+     * under the pixel budget.
+     * <p/>
+     * Icons with an extreme aspect ratio are sampled below the displayed size on their smallest
+     * dimension rather than exceeding the budget.
+     *
+     * @param width      width of the encoded icon, must be positive.
+     * @param height     height of the encoded icon, must be positive.
+     * @param targetSize displayed size of the icon in pixel.
+     * @return power of two sample size, at least 1.
+     */
+    static int getSampleSize(int width, int height, int targetSize) {
+        int sampleSize = IconDecoder.calculateInSampleSize(width, height, targetSize, targetSize);
+        long budget = getPixelBudget(targetSize);
+        while (getSampledPixels(width, height, sampleSize) > budget) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Read an encoded icon at once.
+     *
+     * @param stream   stream of the icon file.
+     * @param maxBytes maximum number of bytes to read.
+     * @return encoded icon or null if the icon is larger than the maximum number of bytes.
+     * @throws IOException if the stream can't be read.
+     */
+    static byte[] readFully(InputStream stream, int maxBytes) throws IOException {
+        int available = stream.available();
+        if (available > maxBytes) {
+            return null;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(available, BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            if (output.size() + read > maxBytes) {
+                return null;
+            }
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static long getSampledPixels(int width, int height, int sampleSize) {
+        long sampledWidth = ((long) width + sampleSize - 1) / sampleSize;
+        long sampledHeight = ((long) height + sampleSize - 1) / sampleSize;
+        return sampledWidth * sampledHeight;
+    }
+}
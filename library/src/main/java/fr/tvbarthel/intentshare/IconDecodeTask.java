@@ -0,0 +1,377 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.view.ViewCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Task used to load an icon off the ui thread on the {@link IconDecodeExecutor}.
+ * <p/>
+ * The decoded icon is delivered on the ui thread to every image view for which the
+ * {@link IconRequest} is still the current one.
+ * <p/>
+ * Icons are looked up in the {@link IconCompressedCache} and then in the {@link IconDiskCache}
+ * before being decoded from the target application resources. The default application icon
+ * replacing an icon which can't be decoded is displayed but never cached.
+ * <p/>
+ * When an {@link IconAtlas} is provided, the decoded icon is packed into it off the ui thread.
+ * Until its page is published, the icon is displayed and kept in the {@link IconMemoryCache} as
+ * any other icon.
+ */
+final class IconDecodeTask extends IconDecodeExecutor.Task {
+
+    private static final String TAG = IconDecodeTask.class.getSimpleName();
+
+    /**
+     * Handler used to deliver decoded icons on the ui thread.
+     */
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    /**
+     * Decoder of each decoding thread.
+     */
+    private static final ThreadLocal<IconDecoder> DECODER = new ThreadLocal<IconDecoder>() {
+        @Override
+        protected IconDecoder initialValue() {
+            return new IconDecoder();
+        }
+    };
+
+    /**
+     * Number of icons decoded from the target application resources since the process started.
+     */
+    private static final AtomicLong DECODE_COUNT = new AtomicLong();
+
+    /**
+     * Time spent to decode icons from the target application resources, in nanoseconds.
+     */
+    private static final AtomicLong DECODE_TIME_NANOS = new AtomicLong();
+
+    private final ArrayList<IconRequest> requests;
+    private final Listener listener;
+    private final PackageResourcesSession resourcesSession;
+    private final IconCompressedCache compressedCache;
+    private final IconDiskCache diskCache;
+    private final IconPlaceholderCache placeholderCache;
+    private final IconAtlas atlas;
+    private final IconShape iconShape;
+    private final IconBitmapPolicy iconBitmapPolicy;
+    private final String targetPackage;
+    private final Uri uri;
+    private int iconResId;
+    private int versionCode;
+    private int targetSize;
+    private int density;
+    private boolean defaultIconUsed;
+    private volatile boolean cancelled;
+    private boolean released;
+
+    /**
+     * Task used to load an icon off the ui thread.
+     *
+     * @param context  context used to access to the target application resources.
+     * @param uri      uri of the icon to load.
+     * @param listener listener notified once the icon has been delivered.
+     * @param atlas    atlas in which the icon should be packed, null to deliver the bitmap.
+     * @param shape    shape applied to the decoded icon.
+     * @param policy   config policy applied to the delivered bitmap.
+     */
+    public IconDecodeTask(Context context, Uri uri, Listener listener, IconAtlas atlas,
+                          IconShape shape, IconBitmapPolicy policy) {
+        super(IconDecodeExecutor.PRIORITY_OFFSCREEN);
+        requests = new ArrayList<>();
+        this.listener = listener;
+        resourcesSession = PackageResourcesSession.getInstance(context);
+        resourcesSession.acquire();
+        released = false;
+        compressedCache = IconCompressedCache.getInstance();
+        diskCache = IconDiskCache.getInstance(context);
+        placeholderCache = IconPlaceholderCache.getInstance(context);
+        this.atlas = atlas;
+        this.iconShape = shape;
+        this.iconBitmapPolicy = policy;
+        this.uri = uri;
+        targetPackage = uri.getAuthority();
+        iconResId = 0;
+        versionCode = -1;
+        defaultIconUsed = false;
+        cancelled = false;
+
+        List<String> pathSegments = uri.getPathSegments();
+        if (pathSegments.size() != 1) {
+            Log.e(TAG, "Can't find the icon res id for : " + uri.toString());
+        } else {
+            try {
+                iconResId = Integer.parseInt(pathSegments.get(0));
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Can't parse the icon res id : " + pathSegments.get(0));
+            }
+        }
+
+        Resources resources = context.getResources();
+        targetSize = resources.getDimensionPixelSize(R.dimen.isl_target_activity_view_icon_size);
+        density = resources.getDisplayMetrics().densityDpi;
+    }
+
+    @Override
+    public void run() {
+        if (isCancelled() || IconDecodeExecutor.getInstance().park(this)) {
+            return;
+        }
+        versionCode = resourcesSession.getVersionCode(targetPackage);
+        // version codes are resolved again by each chooser, the icon may already be in memory.
+        Bitmap cached = IconMemoryCache.getInstance().get(uri, versionCode);
+        final Bitmap bitmap = cached != null ? cached : decodeShaped();
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCancelled()) {
+                    onPostExecute(bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * Retrieve the number of icons decoded from the target application resources since the process
+     * started.
+     *
+     * @return decode count.
+     */
+    static long getDecodeCount() {
+        return DECODE_COUNT.get();
+    }
+
+    /**
+     * Retrieve the time spent to decode icons from the target application resources since the
+     * process started.
+     *
+     * @return decode time in nanoseconds.
+     */
+    static long getDecodeTimeNanos() {
+        return DECODE_TIME_NANOS.get();
+    }
+
+    /**
+     * Retrieve the uri of the icon loaded by the task.
+     *
+     * @return uri of the icon.
+     */
+    Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * Schedule the task on the {@link IconDecodeExecutor}.
+     */
+    void execute() {
+        IconDecodeExecutor.getInstance().execute(this);
+    }
+
+    /**
+     * Cancel the task, the decoded icon won't be delivered.
+     */
+    void cancel() {
+        cancelled = true;
+        IconDecodeExecutor.getInstance().remove(this);
+        releaseSession();
+    }
+
+    /**
+     * Used to know if the task has been canceled.
+     *
+     * @return true if the task has been canceled.
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Add a request served by the task.
+     *
+     * @param request request waiting for the icon.
+     */
+    void addTarget(IconRequest request) {
+        if (!requests.contains(request)) {
+            requests.add(request);
+            request.setTask(this);
+        }
+        updatePriority();
+    }
+
+    /**
+     * Remove a request which doesn't wait for the icon anymore.
+     *
+     * @param request request which has been canceled.
+     */
+    void removeTarget(IconRequest request) {
+        requests.remove(request);
+        request.setTask(null);
+        updatePriority();
+    }
+
+    /**
+     * Used to know if at least one request is still waiting for the icon.
+     *
+     * @return true if the decoded icon is still expected.
+     */
+    boolean hasTargets() {
+        return !requests.isEmpty();
+    }
+
+    /**
+     * Update the priority of the task according to the visibility of the waiting image views.
+     * <p/>
+     * Should be called whenever a waiting image view is attached or detached from the window.
+     * Tasks without any waiting image view are prefetches.
+     */
+    void updatePriority() {
+        int priority = requests.isEmpty()
+                ? IconDecodeExecutor.PRIORITY_PREFETCH : IconDecodeExecutor.PRIORITY_OFFSCREEN;
+        for (int i = 0; i < requests.size(); i++) {
+            if (ViewCompat.isAttachedToWindow(requests.get(i).getImageView())) {
+                priority = IconDecodeExecutor.PRIORITY_VISIBLE;
+                break;
+            }
+        }
+        IconDecodeExecutor.getInstance().reprioritize(this, priority);
+    }
+
+    /**
+     * Load the icon from the caches below the memory cache or decode it, then apply the shape and
+     * the bitmap policy.
+     *
+     * @return icon to deliver or null if it can't be loaded.
+     */
+    private Bitmap decodeShaped() {
+        Bitmap decoded = doInBackground();
+        if (decoded != null) {
+            // caches below the memory cache keep the original icon, shared by every shape.
+            decoded = iconShape.apply(decoded);
+        }
+        if (decoded != null && atlas != null && !defaultIconUsed) {
+            atlas.pack(uri, versionCode, decoded, targetSize);
+        }
+        return decoded == null ? null : iconBitmapPolicy.apply(decoded);
+    }
+
+    private Bitmap doInBackground() {
+        if (versionCode != -1 && IconMemoryCache.getInstance().isMissing(uri, versionCode)) {
+            // already failed for this version, the version wasn't known when the task was created.
+            return null;
+        }
+        String diskKey = versionCode == -1 ? null
+                : IconDiskCache.buildKey(targetPackage, versionCode, iconResId, targetSize, density);
+        Bitmap icon = null;
+        if (diskKey != null) {
+            icon = compressedCache.get(diskKey);
+            if (icon == null) {
+                icon = diskCache.get(diskKey);
+            }
+        }
+
+        if (icon == null && !isCancelled()) {
+            long start = System.nanoTime();
+            icon = decodeIcon();
+            if (icon != null) {
+                DECODE_TIME_NANOS.addAndGet(System.nanoTime() - start);
+                DECODE_COUNT.incrementAndGet();
+                defaultIconUsed = DECODER.get().isDefaultIconUsed();
+            }
+            if (defaultIconUsed) {
+                // displayed but never cached under the key of the icon, the next bind retries.
+                return icon;
+            }
+            if (icon != null && diskKey != null) {
+                // compressed once for both caches.
+                byte[] encoded = IconCompressedCache.encode(icon);
+                if (encoded != null) {
+                    diskCache.put(diskKey, encoded);
+                    compressedCache.put(diskKey, encoded, icon.getWidth(), icon.getHeight());
+                }
+            }
+        }
+
+        if (icon != null && diskKey != null && !compressedCache.contains(diskKey)) {
+            compressedCache.put(diskKey, icon);
+        }
+
+        if (icon != null && versionCode != -1 && !placeholderCache.contains(uri, versionCode)) {
+            placeholderCache.put(uri, versionCode, IconPlaceholderCache.computeDominantColor(icon));
+        }
+        return icon;
+    }
+
+    private void onPostExecute(Bitmap bitmap) {
+        // packed icons are displayed from the atlas once their page is published.
+        boolean packed = atlas != null && atlas.getDrawable(uri, versionCode) != null;
+        for (int i = 0; i < requests.size(); i++) {
+            IconRequest request = requests.get(i);
+            request.setTask(null);
+            if (!request.isCurrent()) {
+                // stale result, the image view is now waiting for another icon.
+                continue;
+            }
+            request.detach();
+            if (packed) {
+                request.getImageView().setImageDrawable(atlas.getDrawable(uri, versionCode));
+            } else if (bitmap != null) {
+                request.getImageView().setImageBitmap(bitmap);
+            }
+        }
+        if (bitmap != null && !packed && !defaultIconUsed) {
+            IconMemoryCache.getInstance().put(uri, versionCode, bitmap);
+        } else if (bitmap == null) {
+            Log.e(TAG, "Failed to load icon from uri : " + uri);
+            if (versionCode != -1) {
+                IconMemoryCache.getInstance().putMissing(uri, versionCode);
+            }
+        }
+        requests.clear();
+        releaseSession();
+        listener.onTaskCompleted(this);
+    }
+
+    private void releaseSession() {
+        if (!released) {
+            released = true;
+            resourcesSession.release();
+        }
+    }
+
+    /**
+     * Decode the icon from the target application resources.
+     *
+     * @return decoded icon or null if the icon can't be decoded.
+     */
+    private Bitmap decodeIcon() {
+        Resources resources = resourcesSession.getResources(targetPackage);
+        if (resources == null || isCancelled()) {
+            return null;
+        }
+
+        return DECODER.get().decode(resources, iconResId, targetSize);
+    }
+
+    /**
+     * Listener used to catch task events.
+     */
+    interface Listener {
+
+        /**
+         * Called once the decoded icon has been delivered to the waiting image views.
+         *
+         * @param completedTask task which has been completed.
+         */
+        void onTaskCompleted(IconDecodeTask completedTask);
+    }
+}
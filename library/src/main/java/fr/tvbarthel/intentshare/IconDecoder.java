@@ -0,0 +1,429 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.support.v4.content.res.ResourcesCompat;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.TypedValue;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decoder used to turn an icon resource into a {@link Bitmap} of the exact displayed size.
+ * <p/>
+ * The resource is opened once : bounds are read from the stream header before decoding
+ * with the largest power of two sample size keeping the icon above the displayed size. The
+ * sampled bitmap is decoded in a pooled buffer, see {@link IconBitmapPool}, and then drawn at
+ * the exact displayed size.
+ * <p/>
+ * Resources which can't be decoded as bitmap, such as adaptive icons, vectors or layer lists,
+ * are inflated as {@link Drawable} and rasterized once at the displayed size.
+ * <p/>
+ * Instead of the screen density, icons are loaded from the density bucket the closest to the
+ * displayed size, see {@link #getIconDensity(int)}.
+ * <p/>
+ * Icon files are not trusted : decodes are bounded by the {@link IconDecodeGuard} and icons which
+ * can't be decoded are replaced by the default application icon.
+ * <p/>
+ * From Android P, bitmaps are decoded by {@link ImageDecoderIconBackend} straight at the displayed
+ * size, see {@link #BACKEND_IMAGE_DECODER}.
+ */
+final class IconDecoder {
+
+    /**
+     * Backend decoding bitmaps with {@link BitmapFactory}, sub sampling them in pooled buffers
+     * before drawing them at the displayed size.
+     */
+    static final int BACKEND_BITMAP_FACTORY = 0;
+
+    /**
+     * Backend decoding bitmaps with {@link ImageDecoderIconBackend}, only available from Android P.
+     */
+    static final int BACKEND_IMAGE_DECODER = 1;
+
+    private static final String TAG = IconDecoder.class.getSimpleName();
+
+    /**
+     * Number of bytes which can be read while decoding the bounds before resetting the stream.
+     */
+    private static final int MARK_LIMIT = 64 * 1024;
+
+    /**
+     * Config used for icons, alpha is required by most of them.
+     */
+    private static final Bitmap.Config CONFIG = Bitmap.Config.ARGB_8888;
+
+    /**
+     * Size of launcher icons in dp.
+     */
+    private static final int LAUNCHER_ICON_SIZE_DP = 48;
+
+    /**
+     * Density buckets in ascending order.
+     */
+    private static final int[] DENSITY_BUCKETS = new int[]{
+            DisplayMetrics.DENSITY_LOW,
+            DisplayMetrics.DENSITY_MEDIUM,
+            DisplayMetrics.DENSITY_HIGH,
+            DisplayMetrics.DENSITY_XHIGH,
+            DisplayMetrics.DENSITY_XXHIGH,
+            DisplayMetrics.DENSITY_XXXHIGH
+    };
+
+    /**
+     * Extension of the drawable resources which can't be decoded by {@link BitmapFactory}.
+     */
+    private static final String XML_EXTENSION = ".xml";
+
+    private final int backend;
+    private final IconBitmapPool bitmapPool;
+    private final Paint paint;
+    private final Rect destination;
+    private final TypedValue typedValue;
+
+    /**
+     * True if the last opened icon resource is backed by a bitmap file.
+     */
+    private boolean bitmapFileOpened;
+
+    /**
+     * True if the last decoded icon has been replaced by the default application icon.
+     */
+    private boolean defaultIconUsed;
+
+    /**
+     * Decoder used to turn an icon resource into a {@link Bitmap} of the exact displayed size.
+     * <p/>
+     * Not thread safe, a decoder should be used by one thread at a time. The backend is chosen
+     * according to the android version.
+     */
+    IconDecoder() {
+        this(ImageDecoderIconBackend.isAvailable() ? BACKEND_IMAGE_DECODER : BACKEND_BITMAP_FACTORY);
+    }
+
+    /**
+     * Decoder used to turn an icon resource into a {@link Bitmap} of the exact displayed size.
+     * <p/>
+     * Not thread safe, a decoder should be used by one thread at a time.
+     *
+     * @param backend backend used to decode bitmaps, {@link #BACKEND_IMAGE_DECODER} requires
+     *                Android P.
+     */
+    IconDecoder(int backend) {
+        if (backend == BACKEND_IMAGE_DECODER && !ImageDecoderIconBackend.isAvailable()) {
+            throw new IllegalArgumentException("Image decoder backend requires Android P.");
+        }
+        this.backend = backend;
+        bitmapPool = IconBitmapPool.getInstance();
+        paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+        destination = new Rect();
+        typedValue = new TypedValue();
+    }
+
+    /**
+     * Compute the largest power of two sample size keeping the sampled dimensions above
+     * the requested ones.
+     *
+     * @param width     width of the encoded image.
+     * @param height    height of the encoded image.
+     * @param reqWidth  requested width.
+     * @param reqHeight requested height.
+     * @return power of two sample size, at least 1.
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Retrieve the smallest density bucket in which a launcher icon is at least as large as the
+     * displayed size.
+     *
+     * @param targetSize displayed size of the icon in pixel.
+     * @return density to use to load the icon.
+     */
+    static int getIconDensity(int targetSize) {
+        int requiredDensity = (int) Math.ceil(
+                (double) targetSize * DisplayMetrics.DENSITY_DEFAULT / LAUNCHER_ICON_SIZE_DP);
+        for (int density : DENSITY_BUCKETS) {
+            if (density >= requiredDensity) {
+                return density;
+            }
+        }
+        return DENSITY_BUCKETS[DENSITY_BUCKETS.length - 1];
+    }
+
+    /**
+     * Decode an icon resource at the exact displayed size.
+     *
+     * @param resources  resources of the application holding the icon.
+     * @param iconResId  res id of the icon.
+     * @param targetSize displayed size of the icon in pixel, the icon will fit inside.
+     * @return decoded icon, the default application icon if the resource can't be decoded nor
+     * rasterized, see {@link #isDefaultIconUsed()}.
+     */
+    Bitmap decode(Resources resources, int iconResId, int targetSize) {
+        defaultIconUsed = false;
+        int density = getIconDensity(targetSize);
+        Bitmap icon = decodeBitmap(resources, iconResId, density, targetSize);
+        if (icon == null && !bitmapFileOpened) {
+            // inflating a bitmap file would bypass the decode guard.
+            icon = rasterize(resources, iconResId, density, targetSize);
+        }
+        if (icon == null && !isDefaultIcon(resources, iconResId)) {
+            Log.w(TAG, "Icon replaced by the default one : " + iconResId);
+            icon = decode(Resources.getSystem(), android.R.drawable.sym_def_app_icon, targetSize);
+            defaultIconUsed = true;
+        }
+        return icon;
+    }
+
+    /**
+     * Used to know if the last decoded icon has been replaced by the default application icon.
+     * <p/>
+     * The default icon shouldn't be cached under the key of the replaced icon : the failure may
+     * be transient, such as running out of memory.
+     *
+     * @return true if the last call to {@link #decode(Resources, int, int)} returned the default
+     * application icon instead of the requested one.
+     */
+    boolean isDefaultIconUsed() {
+        return defaultIconUsed;
+    }
+
+    /**
+     * Decode a bitmap resource at the exact displayed size.
+     *
+     * @param resources  resources of the application holding the icon.
+     * @param iconResId  res id of the icon.
+     * @param density    density bucket from which the icon should be loaded.
+     * @param targetSize displayed size of the icon in pixel, the icon will fit inside.
+     * @return decoded icon or null if the resource can't be decoded as a bitmap.
+     */
+    private Bitmap decodeBitmap(Resources resources, int iconResId, int density, int targetSize) {
+        InputStream stream = null;
+        bitmapFileOpened = false;
+        try {
+            stream = openIconStream(resources, iconResId, density);
+            if (stream == null) {
+                return null;
+            }
+            if (backend == BACKEND_IMAGE_DECODER) {
+                byte[] encoded = IconDecodeGuard.readFully(stream, IconDecodeGuard.MAX_ENCODED_BYTES);
+                if (encoded != null) {
+                    return ImageDecoderIconBackend.decode(encoded, targetSize);
+                }
+                // too large to be buffered at once, sub sampled from the stream instead.
+                close(stream);
+                stream = openIconStream(resources, iconResId, density);
+                if (stream == null) {
+                    return null;
+                }
+            }
+            if (!stream.markSupported()) {
+                stream = new BufferedInputStream(stream, MARK_LIMIT);
+            }
+            stream.mark(MARK_LIMIT);
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(stream, null, options);
+            if (!IconDecodeGuard.hasValidBounds(options.outWidth, options.outHeight)) {
+                Log.w(TAG, "Invalid icon bounds : " + options.outWidth + "x" + options.outHeight);
+                return null;
+            }
+            stream.reset();
+
+            int sampleSize = IconDecodeGuard.getSampleSize(options.outWidth, options.outHeight, targetSize);
+            Bitmap sampled;
+            try {
+                sampled = decodeSampled(stream, options, sampleSize);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    Log.w(TAG, "Icon rejected by the decoder : " + iconResId, e);
+                    return null;
+                }
+                // pooled buffer rejected by the decoder, the stream went past its mark : reopened.
+                bitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+                close(stream);
+                stream = openIconStream(resources, iconResId, density);
+                if (stream == null) {
+                    return null;
+                }
+                sampled = BitmapFactory.decodeStream(stream, null, options);
+            }
+            if (sampled == null) {
+                return null;
+            }
+            return scaleToTargetSize(sampled, targetSize);
+        } catch (Resources.NotFoundException | IOException e) {
+            // may not be backed by a file, such as a color drawable.
+            Log.d(TAG, "Failed to decode icon as bitmap : " + iconResId);
+            return null;
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Not enough memory to decode icon : " + iconResId, e);
+            return null;
+        } finally {
+            close(stream);
+        }
+    }
+
+    /**
+     * Inflate a drawable resource and draw it at the displayed size.
+     *
+     * @param resources  resources of the application holding the icon.
+     * @param iconResId  res id of the icon.
+     * @param density    density bucket from which the icon should be loaded.
+     * @param targetSize displayed size of the icon in pixel, the icon will fit inside.
+     * @return rasterized icon or null if the resource can't be inflated.
+     */
+    private Bitmap rasterize(Resources resources, int iconResId, int density, int targetSize) {
+        Drawable drawable;
+        try {
+            drawable = ResourcesCompat.getDrawableForDensity(resources, iconResId, density, null);
+        } catch (Resources.NotFoundException e) {
+            Log.e(TAG, "Failed to inflate icon : " + iconResId, e);
+            return null;
+        }
+        if (drawable == null || targetSize <= 0) {
+            return null;
+        }
+
+        int intrinsicWidth = drawable.getIntrinsicWidth();
+        int intrinsicHeight = drawable.getIntrinsicHeight();
+        int targetWidth = targetSize;
+        int targetHeight = targetSize;
+        if (intrinsicWidth > 0 && intrinsicHeight > 0) {
+            if (intrinsicWidth > intrinsicHeight) {
+                targetHeight = Math.max(1, Math.round((float) intrinsicHeight * targetSize / intrinsicWidth));
+            } else if (intrinsicHeight > intrinsicWidth) {
+                targetWidth = Math.max(1, Math.round((float) intrinsicWidth * targetSize / intrinsicHeight));
+            }
+        }
+
+        Bitmap icon = Bitmap.createBitmap(targetWidth, targetHeight, CONFIG);
+        drawable.setBounds(0, 0, targetWidth, targetHeight);
+        drawable.draw(new Canvas(icon));
+        return icon;
+    }
+
+    /**
+     * Open the file of an icon resource from the given density bucket.
+     * <p/>
+     * Fallback to the file matching the screen density when the density bucket can't be
+     * selected or when the file can't be opened directly.
+     *
+     * @param resources resources of the application holding the icon.
+     * @param iconResId res id of the icon.
+     * @param density   density bucket from which the icon should be loaded.
+     * @return stream of the icon file or null if the icon is an xml drawable.
+     */
+    private InputStream openIconStream(Resources resources, int iconResId, int density) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            return resources.openRawResource(iconResId);
+        }
+        resources.getValueForDensity(iconResId, density, typedValue, true);
+        if (typedValue.string == null) {
+            // not backed by a file, such as a color drawable.
+            return null;
+        }
+        String file = typedValue.string.toString();
+        if (file.endsWith(XML_EXTENSION)) {
+            return null;
+        }
+        bitmapFileOpened = true;
+        try {
+            return resources.getAssets().openNonAssetFd(typedValue.assetCookie, file).createInputStream();
+        } catch (IOException e) {
+            // compressed inside the apk, can only be opened through the screen density.
+            return resources.openRawResource(iconResId);
+        }
+    }
+
+    /**
+     * Decode the sub sampled icon, reusing a pooled buffer when possible.
+     *
+     * @param stream     stream of the icon file, positioned at its start.
+     * @param options    options holding the bounds of the icon.
+     * @param sampleSize sample size of the decode.
+     * @return sampled icon or null if the icon can't be decoded.
+     * @throws IllegalArgumentException if the pooled buffer is rejected by the decoder, the stream
+     *                                  being consumed.
+     */
+    private Bitmap decodeSampled(InputStream stream, BitmapFactory.Options options, int sampleSize) {
+        int sampledWidth = (int) Math.ceil((double) options.outWidth / sampleSize);
+        int sampledHeight = (int) Math.ceil((double) options.outHeight / sampleSize);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = CONFIG;
+        options.inMutable = true;
+        // before KitKat, buffers can't be reused when sub sampling.
+        if (sampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            options.inBitmap = bitmapPool.get(sampledWidth, sampledHeight, CONFIG);
+        }
+
+        return BitmapFactory.decodeStream(stream, null, options);
+    }
+
+    /**
+     * Draw the sampled bitmap at the exact displayed size, keeping its aspect ratio.
+     * <p/>
+     * The sampled bitmap is released to the pool.
+     *
+     * @param sampled    sampled bitmap.
+     * @param targetSize displayed size of the icon.
+     * @return bitmap of the exact displayed size.
+     */
+    private Bitmap scaleToTargetSize(Bitmap sampled, int targetSize) {
+        int width = sampled.getWidth();
+        int height = sampled.getHeight();
+        if (targetSize <= 0 || Math.max(width, height) == targetSize) {
+            return sampled;
+        }
+
+        int targetWidth = targetSize;
+        int targetHeight = targetSize;
+        if (width > height) {
+            targetHeight = Math.max(1, Math.round((float) height * targetSize / width));
+        } else if (height > width) {
+            targetWidth = Math.max(1, Math.round((float) width * targetSize / height));
+        }
+
+        Bitmap icon = Bitmap.createBitmap(targetWidth, targetHeight, CONFIG);
+        destination.set(0, 0, targetWidth, targetHeight);
+        new Canvas(icon).drawBitmap(sampled, null, destination, paint);
+        bitmapPool.put(sampled);
+        return icon;
+    }
+
+    private static boolean isDefaultIcon(Resources resources, int iconResId) {
+        return resources == Resources.getSystem() && iconResId == android.R.drawable.sym_def_app_icon;
+    }
+
+    private static void close(InputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close icon stream.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache used to store {@link TargetActivity} icons already scaled to their displayed size.
+ * <p/>
+ * Icons are keyed by package, version code, resource id, size and density in order to skip the
+ * access to the target application resources as long as the application isn't updated.
+ * <p/>
+ * Icons are first written in single files and then merged, once the writes settled, into an
+ * {@link IconPackFile} memory-mapped on the next reads. The mapping is released under high memory
+ * pressure.
+ */
+final class IconDiskCache implements MemoryTrimHub.Trimmable {
+
+    /**
+     * Log cat.
+     */
+    private static final String TAG = IconDiskCache.class.getSimpleName();
+
+    /**
+     * Name of the cache directory.
+     */
+    private static final String DIRECTORY = "isl_icons";
+
+    /**
+     * Extension of the single icon files.
+     */
+    private static final String FILE_EXTENSION = ".png";
+
+    /**
+     * Name of the packed icon file.
+     */
+    private static final String PACK_FILE = "isl_icons.pack";
+
+    /**
+     * Delay in milli after the last write before merging single icon files into the packed file.
+     */
+    private static final long MERGE_DELAY_MILLI = 2000;
+
+    /**
+     * Retained fraction below which the packed file mapping is released.
+     */
+    private static final float TRIM_THRESHOLD = 0.25f;
+
+    /**
+     * Pattern for the cache file name, '-' can't be part of a package name.
+     * string 1 : package name
+     * int 2 : version code
+     * int 3 : icon res id
+     * int 4 : icon size in pixel
+     * int 5 : screen density
+     */
+    private static final String FILE_NAME = "%1$s-%2$d-%3$d-%4$d-%5$d" + FILE_EXTENSION;
+
+    /**
+     * Suffix used for file being written.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Shared instance.
+     */
+    private static IconDiskCache instance;
+
+    private final File directory;
+    private final PackageManager packageManager;
+    private final IconPackFile packFile;
+    private final ScheduledExecutorService writeExecutor;
+    private final Runnable mergeRunnable;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private ScheduledFuture<?> pendingMerge;
+
+    /**
+     * Disk cache used to store {@link TargetActivity} icons.
+     *
+     * @param directory      directory in which icons are stored.
+     * @param packageManager package manager used to evict icons of uninstalled packages.
+     */
+    private IconDiskCache(File directory, PackageManager packageManager) {
+        this.directory = directory;
+        this.packageManager = packageManager;
+        this.packFile = new IconPackFile(new File(directory, PACK_FILE));
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.writeExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.mergeRunnable = new Runnable() {
+            @Override
+            public void run() {
+                merge();
+            }
+        };
+    }
+
+    /**
+     * Retrieve the process-wide icon disk cache.
+     *
+     * @param context context used to access to the cache directory.
+     * @return shared icon disk cache.
+     */
+    public static synchronized IconDiskCache getInstance(Context context) {
+        if (instance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY);
+            instance = new IconDiskCache(directory, context.getApplicationContext().getPackageManager());
+            MemoryTrimHub.getInstance().register(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Build the key of an icon.
+     *
+     * @param packageName package of the target application.
+     * @param versionCode version code of the target application.
+     * @param iconResId   res id of the icon inside the target application.
+     * @param size        size of the icon in pixel.
+     * @param density     density of the screen.
+     * @return key of the icon.
+     */
+    public static String buildKey(String packageName, int versionCode, int iconResId, int size, int density) {
+        return String.format(Locale.US, FILE_NAME, packageName, versionCode, iconResId, size, density);
+    }
+
+    /**
+     * Read a cached icon.
+     * <p/>
+     * Packed icons are copied from the memory-mapped packed file. Icons not merged yet are read
+     * at once with a single sequential read before being decoded.
+     * Should not be called from the ui thread.
+     *
+     * @param key key of the icon, see {@link IconDiskCache#buildKey(String, int, int, int, int)}
+     * @return cached icon or null if not cached.
+     */
+    public Bitmap get(String key) {
+        Bitmap icon = read(key);
+        if (icon != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return icon;
+    }
+
+    /**
+     * Retrieve the number of icons found in the cache since the process started.
+     *
+     * @return hit count.
+     */
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Retrieve the number of icons not found in the cache since the process started.
+     *
+     * @return miss count.
+     */
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Store an icon asynchronously.
+     * <p/>
+     * Icons cached for previous versions of the same package are removed. Written icons are merged
+     * into the packed file once no icon has been written for {@link #MERGE_DELAY_MILLI}.
+     *
+     * @param key     key of the icon, see {@link IconDiskCache#buildKey(String, int, int, int, int)}
+     * @param encoded icon compressed as png, see {@link IconCompressedCache#encode(Bitmap)}.
+     */
+    public void put(final String key, final byte[] encoded) {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(key, encoded);
+            }
+        });
+        scheduleMerge();
+    }
+
+    @Override
+    public void trim(float retainedFraction) {
+        if (retainedFraction <= TRIM_THRESHOLD) {
+            packFile.release();
+        }
+    }
+
+    private Bitmap read(String key) {
+        Bitmap packedIcon = packFile.get(key);
+        if (packedIcon != null) {
+            return packedIcon;
+        }
+
+        File file = new File(directory, key);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile input = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return BitmapFactory.decodeByteArray(data, 0, data.length);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read cached icon : " + key, e);
+            return null;
+        } finally {
+            close(input);
+        }
+    }
+
+    private synchronized void scheduleMerge() {
+        if (pendingMerge != null) {
+            pendingMerge.cancel(false);
+        }
+        pendingMerge = writeExecutor.schedule(mergeRunnable, MERGE_DELAY_MILLI, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Merge every single icon file into the packed file.
+     * <p/>
+     * The packed file is rewritten once the writes settled and is bounded, see {@link IconPackFile}.
+     */
+    private void merge() {
+        File[] iconFiles = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(FILE_EXTENSION);
+            }
+        });
+        if (iconFiles == null || iconFiles.length == 0) {
+            return;
+        }
+        Set<String> packageNames = packFile.getPackageNames();
+        for (File iconFile : iconFiles) {
+            String key = iconFile.getName();
+            packageNames.add(key.substring(0, key.indexOf('-')));
+        }
+        // icons of uninstalled packages and of other versions are dropped.
+        Set<String> versionPrefixes = new HashSet<>();
+        for (String packageName : packageNames) {
+            try {
+                int versionCode = packageManager.getPackageInfo(packageName, 0).versionCode;
+                versionPrefixes.add(packageName + "-" + versionCode + "-");
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.d(TAG, "Drop cached icons of uninstalled package : " + packageName);
+            }
+        }
+        packFile.rebuild(iconFiles, versionPrefixes);
+    }
+
+    private void write(String key, byte[] encoded) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Failed to create the icon cache directory : " + directory);
+            return;
+        }
+        removeStaleVersions(key);
+
+        File temp = new File(directory, key + TEMP_SUFFIX);
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temp);
+            output.write(encoded);
+            output.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write cached icon : " + key, e);
+            return;
+        } finally {
+            close(output);
+        }
+
+        if (!temp.renameTo(new File(directory, key))) {
+            Log.e(TAG, "Failed to commit cached icon : " + key);
+        }
+    }
+
+    /**
+     * Remove icons cached for another version of the package linked to the given key.
+     *
+     * @param key key of the icon which is going to be written.
+     */
+    private void removeStaleVersions(final String key) {
+        final String packagePrefix = key.substring(0, key.indexOf('-') + 1);
+        final String versionPrefix = key.substring(0, key.indexOf('-', packagePrefix.length()) + 1);
+        File[] staleFiles = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(packagePrefix) && !name.startsWith(versionPrefix);
+            }
+        });
+        if (staleFiles == null) {
+            return;
+        }
+        for (File staleFile : staleFiles) {
+            if (!staleFile.delete()) {
+                Log.w(TAG, "Failed to remove stale cached icon : " + staleFile.getName());
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close cached icon file.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * Util shared by the icon caches of the library and of the {@link ExtendedIconLoader}
+ * implementations to size and trim their memory the same way.
+ */
+public final class IconMemoryBudget {
+
+    /**
+     * Fraction of the maximum heap size used as default budget.
+     */
+    private static final int DEFAULT_HEAP_FRACTION = 16;
+
+    /**
+     * Upper bound of the default budget, in bytes.
+     */
+    private static final int DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * non instantiable class.
+     */
+    private IconMemoryBudget() {
+
+    }
+
+    /**
+     * Default memory budget of an icon cache based on the maximum heap size of the process.
+     *
+     * @return default memory budget in bytes.
+     */
+    public static int getDefaultMaxSize() {
+        long heapFraction = Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION;
+        return (int) Math.min(heapFraction, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Fraction of its content an icon cache should keep for a given trim level.
+     *
+     * @param level trim level, see {@link ComponentCallbacks2}.
+     * @return fraction between 0, everything should be released, and 1, nothing should be released.
+     */
+    public static float getRetainedFraction(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return 0.75f;
+        }
+        return 1f;
+    }
+}
@@ -0,0 +1,281 @@
+package fr.tvbarthel.intentshare;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+
+import java.util.Map;
+
+/**
+ * Process-wide memory cache used to keep decoded {@link TargetActivity} icons across
+ * chooser launches.
+ * <p/>
+ * Icons are keyed by uri and version code of the target application : icons of a previous
+ * version are never delivered once the application is updated and end up evicted.
+ * <p/>
+ * Size is accounted in bytes and least recently used icons are evicted first once the
+ * memory budget is exceeded.
+ * <p/>
+ * Icons which failed to load are remembered as well to avoid attempting them again until the
+ * target application is updated.
+ * <p/>
+ * A part of the budget can be reserved for bitmaps kept outside of the cache, such as the
+ * {@link IconAtlas} pages.
+ * <p/>
+ * Under memory pressure, least recently used icons are evicted in proportion to the trim level.
+ */
+final class IconMemoryCache implements MemoryTrimHub.Trimmable {
+
+    /**
+     * Maximum number of icons remembered as missing.
+     */
+    private static final int MAX_MISSING_ICONS = 64;
+
+    /**
+     * Fraction of the budget which can be reserved, one out of.
+     */
+    private static final int MAX_RESERVED_FRACTION = 2;
+
+    /**
+     * Shared instance.
+     */
+    private static IconMemoryCache instance;
+
+    private volatile LruCache<String, Bitmap> lruCache;
+    private final LruCache<String, Boolean> missingIcons;
+    private volatile int reservedSize;
+
+    /**
+     * Process-wide memory cache used to keep decoded {@link TargetActivity} icons.
+     *
+     * @param maxSize memory budget in bytes.
+     */
+    private IconMemoryCache(int maxSize) {
+        lruCache = new BitmapLruCache(maxSize);
+        missingIcons = new LruCache<>(MAX_MISSING_ICONS);
+        reservedSize = 0;
+    }
+
+    /**
+     * Retrieve the process-wide icon memory cache.
+     *
+     * @return shared icon memory cache.
+     */
+    public static synchronized IconMemoryCache getInstance() {
+        if (instance == null) {
+            instance = new IconMemoryCache(IconMemoryBudget.getDefaultMaxSize());
+            MemoryTrimHub.getInstance().register(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Retrieve a cached icon.
+     *
+     * @param iconUri     uri of the icon.
+     * @param versionCode version code of the target application, -1 if not known yet.
+     * @return cached icon or null if not in the cache for the given version.
+     */
+    public Bitmap get(Uri iconUri, int versionCode) {
+        if (versionCode == -1) {
+            return null;
+        }
+        return lruCache.get(buildKey(iconUri, versionCode));
+    }
+
+    /**
+     * Add a decoded icon to the cache.
+     *
+     * @param iconUri     uri of the icon.
+     * @param versionCode version code of the target application.
+     * @param icon        decoded icon.
+     */
+    public synchronized void put(Uri iconUri, int versionCode, Bitmap icon) {
+        if (versionCode == -1) {
+            return;
+        }
+        lruCache.put(buildKey(iconUri, versionCode), icon);
+        if (reservedSize > 0) {
+            lruCache.trimToSize(lruCache.maxSize() - reservedSize);
+        }
+    }
+
+    /**
+     * Remove a cached icon.
+     *
+     * @param iconUri     uri of the icon.
+     * @param versionCode version code of the target application.
+     */
+    public synchronized void remove(Uri iconUri, int versionCode) {
+        lruCache.remove(buildKey(iconUri, versionCode));
+    }
+
+    /**
+     * Reserve a part of the budget for bitmaps kept outside of the cache.
+     * <p/>
+     * Least recently used icons are evicted to make room for the reservation.
+     *
+     * @param size size to reserve in bytes.
+     * @return true if reserved, false if the reservations would exceed half of the budget.
+     */
+    public synchronized boolean reserve(int size) {
+        LruCache<String, Bitmap> current = lruCache;
+        if (reservedSize + size > current.maxSize() / MAX_RESERVED_FRACTION) {
+            return false;
+        }
+        reservedSize += size;
+        current.trimToSize(current.maxSize() - reservedSize);
+        return true;
+    }
+
+    /**
+     * Release a part of the budget previously reserved.
+     *
+     * @param size size to release in bytes.
+     */
+    public synchronized void release(int size) {
+        reservedSize = Math.max(0, reservedSize - size);
+    }
+
+    /**
+     * Retrieve the part of the budget reserved for bitmaps kept outside of the cache.
+     *
+     * @return size in bytes.
+     */
+    public int reservedSize() {
+        return reservedSize;
+    }
+
+    /**
+     * Remember that an icon can't be loaded.
+     *
+     * @param iconUri     uri of the icon which failed to load.
+     * @param versionCode version code of the target application.
+     */
+    public void putMissing(Uri iconUri, int versionCode) {
+        missingIcons.put(buildKey(iconUri, versionCode), Boolean.TRUE);
+    }
+
+    /**
+     * Used to know if an icon already failed to load for the given version.
+     *
+     * @param iconUri     uri of the icon.
+     * @param versionCode version code of the target application.
+     * @return true if the icon can't be loaded.
+     */
+    public boolean isMissing(Uri iconUri, int versionCode) {
+        return missingIcons.get(buildKey(iconUri, versionCode)) != null;
+    }
+
+    /**
+     * Change the memory budget of the cache.
+     * <p/>
+     * Most recently used icons are kept as long as they fit in the new budget. Holds the same lock
+     * as {@link #put(Uri, int, Bitmap)} for no icon to be put in the replaced cache.
+     *
+     * @param maxSize new memory budget in bytes.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Icon memory cache size must be positive : " + maxSize);
+        }
+        if (maxSize == lruCache.maxSize()) {
+            return;
+        }
+        // snapshot is ordered from least recently used to most recently used.
+        Map<String, Bitmap> snapshot = lruCache.snapshot();
+        LruCache<String, Bitmap> resized = new BitmapLruCache(maxSize);
+        for (Map.Entry<String, Bitmap> entry : snapshot.entrySet()) {
+            resized.put(entry.getKey(), entry.getValue());
+        }
+        resized.trimToSize(maxSize - reservedSize);
+        lruCache = resized;
+    }
+
+    /**
+     * Retrieve the memory budget of the cache.
+     *
+     * @return memory budget in bytes.
+     */
+    public int maxSize() {
+        return lruCache.maxSize();
+    }
+
+    /**
+     * Retrieve the memory currently used by the cached icons.
+     *
+     * @return size in bytes.
+     */
+    public int size() {
+        return lruCache.size();
+    }
+
+    /**
+     * Retrieve the number of icons found in the cache since its last resize.
+     *
+     * @return hit count.
+     */
+    public int hitCount() {
+        return lruCache.hitCount();
+    }
+
+    /**
+     * Retrieve the number of icons not found in the cache since its last resize.
+     *
+     * @return miss count.
+     */
+    public int missCount() {
+        return lruCache.missCount();
+    }
+
+    /**
+     * Retrieve the number of icons evicted from the cache since its last resize.
+     *
+     * @return eviction count.
+     */
+    public int evictionCount() {
+        return lruCache.evictionCount();
+    }
+
+    /**
+     * Remove every cached icon.
+     */
+    public synchronized void evictAll() {
+        lruCache.evictAll();
+        missingIcons.evictAll();
+    }
+
+    @Override
+    public synchronized void trim(float retainedFraction) {
+        LruCache<String, Bitmap> current = lruCache;
+        if (retainedFraction <= 0f) {
+            current.evictAll();
+        } else {
+            current.trimToSize((int) (current.size() * retainedFraction));
+        }
+    }
+
+    private static String buildKey(Uri iconUri, int versionCode) {
+        return versionCode + "/" + iconUri;
+    }
+
+    /**
+     * {@link LruCache} accounting {@link Bitmap} by their byte count.
+     */
+    private static final class BitmapLruCache extends LruCache<String, Bitmap> {
+
+        /**
+         * {@link LruCache} accounting {@link Bitmap} by their byte count.
+         *
+         * @param maxSize memory budget in bytes.
+         */
+        BitmapLruCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    }
+}
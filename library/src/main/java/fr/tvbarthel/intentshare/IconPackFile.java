@@ -0,0 +1,460 @@
+package fr.tvbarthel.intentshare;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single file packing the raw pixels of the icons stored by the {@link IconDiskCache}.
+ * <p/>
+ * The file starts with an index of the packed icons followed by their pixel blocks :
+ * <pre>
+ * int   magic
+ * int   format version
+ * int   entry count
+ * entry count times :
+ *     short  key length
+ *     byte[] key, utf-8
+ *     int    width
+ *     int    height
+ *     byte   config, 0 for ARGB_8888, 1 for RGB_565
+ *     int    block offset, relative to the end of the index
+ *     int    block length
+ * pixel blocks
+ * </pre>
+ * The file is memory-mapped once opened : reading an icon still copies its whole pixel block into
+ * a new bitmap, but without any read system call nor decoding. Entries are checked against the
+ * file when mapped, a corrupted file is ignored.
+ * <p/>
+ * Icons are first written as single files by the {@link IconDiskCache} and then merged into the
+ * packed file, see {@link #rebuild(File[], Set)}. Entries are ordered from the most to the least
+ * recently used and the file is bounded to {@link #MAX_SIZE} bytes of pixels.
+ */
+final class IconPackFile {
+
+    private static final String TAG = IconPackFile.class.getSimpleName();
+
+    /**
+     * Magic number identifying a packed icon file.
+     */
+    private static final int MAGIC = 0x49534C50;
+
+    /**
+     * Version of the file format, files with another version are ignored.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Maximum size of the pixel blocks in bytes, least recently used icons are dropped beyond.
+     */
+    private static final int MAX_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Config code of {@link Bitmap.Config#ARGB_8888} blocks.
+     */
+    private static final byte CONFIG_ARGB_8888 = 0;
+
+    /**
+     * Config code of {@link Bitmap.Config#RGB_565} blocks.
+     */
+    private static final byte CONFIG_RGB_565 = 1;
+
+    /**
+     * Charset of the keys.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Suffix used for file being written.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File file;
+    private volatile Mapping mapping;
+    private boolean opened;
+
+    /**
+     * Single file packing the raw pixels of icons.
+     *
+     * @param file packed file, may not exist yet.
+     */
+    IconPackFile(File file) {
+        this.file = file;
+        mapping = null;
+        opened = false;
+    }
+
+    /**
+     * Read a packed icon.
+     * <p/>
+     * The file is mapped on the first call. Should not be called from the ui thread.
+     *
+     * @param key key of the icon, see {@link IconDiskCache#buildKey(String, int, int, int, int)}
+     * @return packed icon or null if not packed.
+     */
+    public Bitmap get(String key) {
+        Mapping current = open();
+        if (current == null) {
+            return null;
+        }
+        Entry entry = current.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        current.readKeys.add(key);
+        ByteBuffer block = current.buffer.duplicate();
+        block.limit(current.dataStart + entry.offset + entry.length);
+        block.position(current.dataStart + entry.offset);
+        Bitmap icon = Bitmap.createBitmap(entry.width, entry.height, toConfig(entry.config));
+        icon.copyPixelsFromBuffer(block);
+        return icon;
+    }
+
+    /**
+     * Used to know if an icon is packed.
+     *
+     * @param key key of the icon.
+     * @return true if the icon is packed.
+     */
+    public boolean contains(String key) {
+        Mapping current = open();
+        return current != null && current.entries.containsKey(key);
+    }
+
+    /**
+     * Retrieve the packages having icons packed.
+     *
+     * @return package names of the packed icons.
+     */
+    public Set<String> getPackageNames() {
+        Mapping current = open();
+        Set<String> packageNames = new HashSet<>();
+        if (current != null) {
+            for (String key : current.entries.keySet()) {
+                packageNames.add(key.substring(0, key.indexOf('-')));
+            }
+        }
+        return packageNames;
+    }
+
+    /**
+     * Merge single icon files into the packed file.
+     * <p/>
+     * Merged icons come first, followed by the packed icons read since the file has been mapped
+     * and then by the other packed icons. Icons whose key doesn't start with one of the given
+     * version prefixes, belonging to an uninstalled package or to another version of the package,
+     * are dropped as well as icons beyond {@link #MAX_SIZE}. Packed icons are copied as is from the
+     * current mapping. Merged files are removed once the new packed file has been committed.
+     * <p/>
+     * Should only be called from a single background thread.
+     *
+     * @param iconFiles       single icon files to merge.
+     * @param versionPrefixes prefixes shared by the keys of the installed version of each package
+     *                        having icons packed or merged.
+     */
+    public void rebuild(File[] iconFiles, Set<String> versionPrefixes) {
+        Mapping current = open();
+        List<String> keys = new ArrayList<>();
+        List<ByteBuffer> blocks = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        int size = 0;
+
+        List<File> merged = new ArrayList<>();
+        for (File iconFile : iconFiles) {
+            merged.add(iconFile);
+            String key = iconFile.getName();
+            if (!isInstalled(key, versionPrefixes)) {
+                continue;
+            }
+            Bitmap icon = BitmapFactory.decodeFile(iconFile.getPath());
+            if (icon == null) {
+                Log.w(TAG, "Failed to merge icon : " + iconFile.getName());
+                continue;
+            }
+            byte config = icon.getConfig() == Bitmap.Config.RGB_565 ? CONFIG_RGB_565 : CONFIG_ARGB_8888;
+            Bitmap block = icon.getConfig() == toConfig(config) ? icon : icon.copy(toConfig(config), false);
+            if (size + block.getByteCount() > MAX_SIZE) {
+                continue;
+            }
+            ByteBuffer pixels = ByteBuffer.allocate(block.getByteCount());
+            block.copyPixelsToBuffer(pixels);
+            pixels.rewind();
+            keys.add(key);
+            blocks.add(pixels);
+            entries.add(new Entry(block.getWidth(), block.getHeight(), config, size, pixels.remaining()));
+            size += pixels.remaining();
+        }
+
+        if (current != null) {
+            // recently read icons first, then in the previous order : from the most recently used.
+            List<String> packedKeys = new ArrayList<>(current.entries.size());
+            for (String key : current.entries.keySet()) {
+                if (current.readKeys.contains(key)) {
+                    packedKeys.add(key);
+                }
+            }
+            for (String key : current.entries.keySet()) {
+                if (!current.readKeys.contains(key)) {
+                    packedKeys.add(key);
+                }
+            }
+            for (String key : packedKeys) {
+                Entry entry = current.entries.get(key);
+                if (keys.contains(key) || !isInstalled(key, versionPrefixes) || size + entry.length > MAX_SIZE) {
+                    continue;
+                }
+                ByteBuffer block = current.buffer.duplicate();
+                block.limit(current.dataStart + entry.offset + entry.length);
+                block.position(current.dataStart + entry.offset);
+                keys.add(key);
+                blocks.add(block);
+                entries.add(new Entry(entry.width, entry.height, entry.config, size, entry.length));
+                size += entry.length;
+            }
+        }
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        DataOutputStream output = null;
+        try {
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOutput = new DataOutputStream(index);
+            for (int i = 0; i < keys.size(); i++) {
+                writeEntry(indexOutput, keys.get(i), entries.get(i));
+            }
+            indexOutput.flush();
+
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(keys.size());
+            index.writeTo(output);
+            byte[] chunk = new byte[8 * 1024];
+            for (ByteBuffer buffer : blocks) {
+                while (buffer.hasRemaining()) {
+                    int length = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, length);
+                    output.write(chunk, 0, length);
+                }
+            }
+            output.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write packed icons.", e);
+            return;
+        } finally {
+            close(output);
+        }
+
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to commit packed icons.");
+            return;
+        }
+        // previous mapping stays valid for pending reads.
+        mapping = map();
+        for (File iconFile : merged) {
+            if (!iconFile.delete()) {
+                Log.w(TAG, "Failed to remove merged icon : " + iconFile.getName());
+            }
+        }
+    }
+
+    /**
+     * Release the mapping, the file will be mapped again on the next read.
+     */
+    public synchronized void release() {
+        mapping = null;
+        opened = false;
+    }
+
+    /**
+     * Map the file if not mapped yet.
+     *
+     * @return current mapping or null if the file doesn't exist or is invalid.
+     */
+    private synchronized Mapping open() {
+        if (!opened) {
+            opened = true;
+            mapping = map();
+        }
+        return mapping;
+    }
+
+    /**
+     * Map the file and read its index.
+     *
+     * @return mapping or null if the file doesn't exist or is invalid.
+     */
+    private Mapping map() {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile input = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            FileChannel channel = input.getChannel();
+            // the mapping stays valid once the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                Log.w(TAG, "Ignore packed icons with unknown format.");
+                return null;
+            }
+            int count = buffer.getInt();
+            if (count < 0) {
+                Log.w(TAG, "Ignore corrupted packed icons.");
+                return null;
+            }
+            LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                short keyLength = buffer.getShort();
+                if (keyLength < 0) {
+                    Log.w(TAG, "Ignore corrupted packed icons.");
+                    return null;
+                }
+                byte[] key = new byte[keyLength];
+                buffer.get(key);
+                Entry entry = new Entry(buffer.getInt(), buffer.getInt(), buffer.get(), buffer.getInt(),
+                        buffer.getInt());
+                if (!entry.isValid()) {
+                    Log.w(TAG, "Ignore corrupted packed icons.");
+                    return null;
+                }
+                String name = new String(key, UTF_8);
+                if (name.indexOf('-', name.indexOf('-') + 1) == -1) {
+                    Log.w(TAG, "Ignore corrupted packed icons.");
+                    return null;
+                }
+                entries.put(name, entry);
+            }
+            int dataStart = buffer.position();
+            for (Entry entry : entries.values()) {
+                if ((long) dataStart + entry.offset + entry.length > buffer.limit()) {
+                    Log.w(TAG, "Ignore truncated packed icons.");
+                    return null;
+                }
+            }
+            return new Mapping(buffer, dataStart, entries);
+        } catch (IOException | BufferUnderflowException e) {
+            Log.e(TAG, "Failed to map packed icons.", e);
+            return null;
+        } finally {
+            close(input);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream output, String key, Entry entry) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        output.writeShort(keyBytes.length);
+        output.write(keyBytes);
+        output.writeInt(entry.width);
+        output.writeInt(entry.height);
+        output.writeByte(entry.config);
+        output.writeInt(entry.offset);
+        output.writeInt(entry.length);
+    }
+
+    private static boolean isInstalled(String key, Set<String> versionPrefixes) {
+        return versionPrefixes.contains(key.substring(0, key.indexOf('-', key.indexOf('-') + 1) + 1));
+    }
+
+    private static Bitmap.Config toConfig(byte config) {
+        return config == CONFIG_RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close packed icons file.", e);
+            }
+        }
+    }
+
+    /**
+     * Location of a packed icon.
+     */
+    private static final class Entry {
+
+        private final int width;
+        private final int height;
+        private final byte config;
+        private final int offset;
+        private final int length;
+
+        /**
+         * Location of a packed icon.
+         *
+         * @param width  width of the icon.
+         * @param height height of the icon.
+         * @param config config code of the pixel block.
+         * @param offset offset of the pixel block, relative to the end of the index.
+         * @param length length of the pixel block.
+         */
+        Entry(int width, int height, byte config, int offset, int length) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Check the entry against its own dimensions, the pixels being copied without any check.
+         *
+         * @return true if the block length matches the dimensions and config of the icon.
+         */
+        boolean isValid() {
+            if (width <= 0 || height <= 0 || offset < 0
+                    || (config != CONFIG_ARGB_8888 && config != CONFIG_RGB_565)) {
+                return false;
+            }
+            int bytesPerPixel = config == CONFIG_RGB_565 ? 2 : 4;
+            return length == (long) width * height * bytesPerPixel;
+        }
+    }
+
+    /**
+     * Mapped file and its index.
+     */
+    private static final class Mapping {
+
+        private final ByteBuffer buffer;
+        private final int dataStart;
+        private final LinkedHashMap<String, Entry> entries;
+        private final Set<String> readKeys;
+
+        /**
+         * Mapped file and its index.
+         *
+         * @param buffer    mapped file.
+         * @param dataStart position of the first pixel block.
+         * @param entries   index of the packed icons, in the file order.
+         */
+        Mapping(ByteBuffer buffer, int dataStart, LinkedHashMap<String, Entry> entries) {
+            this.buffer = buffer;
+            this.dataStart = dataStart;
+            this.entries = entries;
+            this.readKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of the placeholders displayed while {@link TargetActivity} icons are decoded.
+ * <p/>
+ * A placeholder is the dominant color of an icon, computed once per version of the target
+ * application and persisted to be available in the very first frame of the next choosers.
+ * <p/>
+ * Placeholders are read into memory off the ui thread as soon as the cache is created and
+ * written back at once, once the puts settled. Only the most recently used placeholders of
+ * installed applications are kept.
+ */
+final class IconPlaceholderCache {
+
+    /**
+     * Log cat.
+     */
+    private static final String TAG = IconPlaceholderCache.class.getSimpleName();
+
+    /**
+     * Shared preferences key used to store the placeholders.
+     */
+    private static final String SHARED_PREF_KEY = "shared_pref_icon_placeholders";
+
+    /**
+     * Maximum number of placeholders kept.
+     */
+    private static final int MAX_ENTRIES = 256;
+
+    /**
+     * Delay in milli after the last put before writing the placeholders.
+     */
+    private static final long WRITE_DELAY_MILLI = 2000;
+
+    /**
+     * Maximum number of pixels sampled on each axis to find the dominant color.
+     */
+    private static final int SAMPLES = 16;
+
+    /**
+     * Alpha under which a pixel is ignored to find the dominant color.
+     */
+    private static final int MIN_ALPHA = 128;
+
+    /**
+     * Number of bits kept for each channel to group similar colors.
+     */
+    private static final int QUANTIZATION_BITS = 4;
+
+    /**
+     * Shared instance.
+     */
+    private static IconPlaceholderCache instance;
+
+    private final Context context;
+    private final LinkedHashMap<String, Long> placeholders;
+    private final ScheduledExecutorService ioExecutor;
+    private final Runnable writeRunnable;
+    private SharedPreferences sharedPreferences;
+    private ScheduledFuture<?> pendingWrite;
+
+    /**
+     * Process-wide cache of the placeholders displayed while icons are decoded.
+     *
+     * @param context application context used to access to the shared preferences.
+     */
+    private IconPlaceholderCache(Context context) {
+        this.context = context;
+        this.placeholders = new LinkedHashMap<String, Long>(MAX_ENTRIES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        this.ioExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.writeRunnable = new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        };
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Retrieve the process-wide placeholder cache.
+     * <p/>
+     * Stored placeholders start being read off the ui thread on the first call.
+     *
+     * @param context context used to access to the shared preferences.
+     * @return shared placeholder cache.
+     */
+    public static synchronized IconPlaceholderCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new IconPlaceholderCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Compute the dominant color of an icon.
+     * <p/>
+     * Sampled opaque pixels are grouped by similar colors and the average color of the largest
+     * group is returned.
+     *
+     * @param icon decoded icon.
+     * @return dominant color or {@link Color#TRANSPARENT} if the icon is fully transparent.
+     */
+    static int computeDominantColor(Bitmap icon) {
+        int width = icon.getWidth();
+        int height = icon.getHeight();
+        int stepX = Math.max(1, width / SAMPLES);
+        int stepY = Math.max(1, height / SAMPLES);
+
+        int groupCount = 1 << (QUANTIZATION_BITS * 3);
+        int[] counts = new int[groupCount];
+        long[] reds = new long[groupCount];
+        long[] greens = new long[groupCount];
+        long[] blues = new long[groupCount];
+        int dominant = -1;
+        int shift = 8 - QUANTIZATION_BITS;
+        for (int y = stepY / 2; y < height; y += stepY) {
+            for (int x = stepX / 2; x < width; x += stepX) {
+                int pixel = icon.getPixel(x, y);
+                if (Color.alpha(pixel) < MIN_ALPHA) {
+                    continue;
+                }
+                int red = Color.red(pixel);
+                int green = Color.green(pixel);
+                int blue = Color.blue(pixel);
+                int group = ((red >> shift) << (QUANTIZATION_BITS * 2))
+                        | ((green >> shift) << QUANTIZATION_BITS)
+                        | (blue >> shift);
+                counts[group]++;
+                reds[group] += red;
+                greens[group] += green;
+                blues[group] += blue;
+                if (dominant == -1 || counts[group] > counts[dominant]) {
+                    dominant = group;
+                }
+            }
+        }
+        if (dominant == -1) {
+            return Color.TRANSPARENT;
+        }
+        int count = counts[dominant];
+        return Color.rgb(
+                (int) (reds[dominant] / count),
+                (int) (greens[dominant] / count),
+                (int) (blues[dominant] / count)
+        );
+    }
+
+    /**
+     * Build the drawable displayed while an icon is decoded.
+     * <p/>
+     * Never blocks : no placeholder is returned until the stored ones have been read.
+     *
+     * @param iconUri uri of the icon, shaped or not.
+     * @return placeholder drawable or null if no placeholder is available yet.
+     */
+    public Drawable getPlaceholder(Uri iconUri) {
+        Long stored;
+        synchronized (this) {
+            stored = placeholders.get(buildKey(iconUri));
+        }
+        if (stored == null) {
+            return null;
+        }
+        int color = (int) stored.longValue();
+        if (Color.alpha(color) == 0) {
+            return null;
+        }
+        GradientDrawable placeholder = new GradientDrawable();
+        placeholder.setShape(GradientDrawable.OVAL);
+        placeholder.setColor(color);
+        return placeholder;
+    }
+
+    /**
+     * Used to know if the placeholder of an icon has already been computed for the given version.
+     *
+     * @param iconUri     uri of the icon, shaped or not.
+     * @param versionCode version code of the target application.
+     * @return true if the placeholder is up to date.
+     */
+    public synchronized boolean contains(Uri iconUri, int versionCode) {
+        Long stored = placeholders.get(buildKey(iconUri));
+        return stored != null && (int) (stored >> 32) == versionCode;
+    }
+
+    /**
+     * Store the placeholder of an icon.
+     * <p/>
+     * Placeholders are written at once when no placeholder has been put for {@link #WRITE_DELAY_MILLI}.
+     *
+     * @param iconUri     uri of the icon, shaped or not.
+     * @param versionCode version code of the target application.
+     * @param color       dominant color of the icon.
+     */
+    public void put(Uri iconUri, int versionCode, int color) {
+        long stored = ((long) versionCode << 32) | (color & 0xFFFFFFFFL);
+        synchronized (this) {
+            placeholders.put(buildKey(iconUri), stored);
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Build the key of a placeholder.
+     * <p/>
+     * The shape doesn't change the dominant color : every shape of an icon shares its placeholder.
+     *
+     * @param iconUri uri of the icon, shaped or not.
+     * @return key of the placeholder.
+     */
+    private static String buildKey(Uri iconUri) {
+        return iconUri.buildUpon().clearQuery().build().toString();
+    }
+
+    private synchronized void scheduleWrite() {
+        if (pendingWrite != null) {
+            pendingWrite.cancel(false);
+        }
+        pendingWrite = ioExecutor.schedule(writeRunnable, WRITE_DELAY_MILLI, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Read the stored placeholders, dropping the ones of uninstalled or updated applications.
+     * <p/>
+     * Runs on the io executor.
+     */
+    private void load() {
+        sharedPreferences = context.getSharedPreferences(SHARED_PREF_KEY, Context.MODE_PRIVATE);
+        Map<String, ?> all = sharedPreferences.getAll();
+        PackageManager packageManager = context.getPackageManager();
+        HashMap<String, Integer> versionCodes = new HashMap<>();
+        LinkedHashMap<String, Long> valid = new LinkedHashMap<>();
+        boolean pruned = false;
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            if (!(entry.getValue() instanceof Long)) {
+                pruned = true;
+                continue;
+            }
+            long stored = (Long) entry.getValue();
+            Uri iconUri = Uri.parse(entry.getKey());
+            String packageName = iconUri.getAuthority();
+            if (packageName == null || !entry.getKey().equals(buildKey(iconUri))) {
+                // placeholders previously stored once per shape.
+                pruned = true;
+                continue;
+            }
+            Integer versionCode = versionCodes.get(packageName);
+            if (versionCode == null) {
+                try {
+                    versionCode = packageManager.getPackageInfo(packageName, 0).versionCode;
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.d(TAG, "Drop placeholders of uninstalled package : " + packageName);
+                    versionCode = -1;
+                }
+                versionCodes.put(packageName, versionCode);
+            }
+            if ((int) (stored >> 32) != versionCode) {
+                pruned = true;
+                continue;
+            }
+            valid.put(entry.getKey(), stored);
+        }
+
+        synchronized (this) {
+            // placeholders put while loading are the most recent ones.
+            LinkedHashMap<String, Long> recent = new LinkedHashMap<>(placeholders);
+            placeholders.clear();
+            placeholders.putAll(valid);
+            placeholders.putAll(recent);
+            pruned |= valid.size() > MAX_ENTRIES;
+        }
+        if (pruned) {
+            write();
+        }
+    }
+
+    /**
+     * Rewrite the stored placeholders with a single commit.
+     * <p/>
+     * Runs on the io executor, always after {@link #load()}, off the ui thread : committing here
+     * keeps the writes out of the queued work the framework waits for when the chooser is stopped.
+     */
+    private void write() {
+        LinkedHashMap<String, Long> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(placeholders);
+        }
+        SharedPreferences.Editor editor = sharedPreferences.edit().clear();
+        for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+            editor.putLong(entry.getKey(), entry.getValue());
+        }
+        if (!editor.commit()) {
+            Log.w(TAG, "Failed to write the icon placeholders.");
+        }
+    }
+}
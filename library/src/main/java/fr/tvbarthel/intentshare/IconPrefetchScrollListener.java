@@ -0,0 +1,122 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Scroll listener prefetching the icons of the rows about to be scrolled on screen through an
+ * {@link ExtendedIconLoader}.
+ * <p/>
+ * Icons of the next {@link #LOOK_AHEAD_ROWS} rows in the scroll direction are preloaded and
+ * preloads which left this look-ahead window are canceled.
+ * <p/>
+ * No icon is prefetched during a fling since the rows ahead are scrolled past before being
+ * decoded, prefetches resume once the list settles.
+ */
+class IconPrefetchScrollListener extends RecyclerView.OnScrollListener {
+
+    /**
+     * Number of rows prefetched ahead of the visible ones.
+     */
+    private static final int LOOK_AHEAD_ROWS = 2;
+
+    private final List<TargetActivity> targetActivities;
+    private final ExtendedIconLoader iconLoader;
+    private final HashSet<Uri> prefetched;
+    private final HashSet<Uri> window;
+
+    /**
+     * Scroll listener prefetching the icons of the rows about to be scrolled on screen.
+     *
+     * @param targetActivities adapted target activities, the adapter having a header before them.
+     * @param iconLoader       loader used to prefetch the icons.
+     */
+    IconPrefetchScrollListener(List<TargetActivity> targetActivities, ExtendedIconLoader iconLoader) {
+        this.targetActivities = targetActivities;
+        this.iconLoader = iconLoader;
+        prefetched = new HashSet<>();
+        window = new HashSet<>();
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        super.onScrollStateChanged(recyclerView, newState);
+        if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+            cancelAll(recyclerView.getContext());
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        super.onScrolled(recyclerView, dx, dy);
+        if (dy == 0
+                || recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_SETTLING
+                || !(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int spanCount = layoutManager instanceof GridLayoutManager
+                ? ((GridLayoutManager) layoutManager).getSpanCount() : 1;
+        int lookAhead = LOOK_AHEAD_ROWS * spanCount;
+
+        int start;
+        int end;
+        if (dy > 0) {
+            start = layoutManager.findLastVisibleItemPosition() + 1;
+            end = start + lookAhead;
+        } else {
+            end = layoutManager.findFirstVisibleItemPosition();
+            start = end - lookAhead;
+        }
+        // adapter positions, 0 being the header.
+        start = Math.max(1, start);
+        end = Math.min(end, targetActivities.size() + 1);
+
+        window.clear();
+        for (int position = start; position < end; position++) {
+            window.add(targetActivities.get(position - 1).getIconUri());
+        }
+
+        ArrayList<Uri> left = new ArrayList<>();
+        Iterator<Uri> iterator = prefetched.iterator();
+        while (iterator.hasNext()) {
+            Uri iconUri = iterator.next();
+            if (!window.contains(iconUri)) {
+                left.add(iconUri);
+                iterator.remove();
+            }
+        }
+        ArrayList<Uri> entered = new ArrayList<>();
+        for (Uri iconUri : window) {
+            if (prefetched.add(iconUri)) {
+                entered.add(iconUri);
+            }
+        }
+        if (!left.isEmpty()) {
+            iconLoader.cancelPreload(recyclerView.getContext(), left);
+        }
+        if (!entered.isEmpty()) {
+            iconLoader.preload(recyclerView.getContext(), entered);
+        }
+    }
+
+    /**
+     * Cancel every pending prefetch.
+     *
+     * @param context context used to load the icons.
+     */
+    void cancelAll(Context context) {
+        if (!prefetched.isEmpty()) {
+            iconLoader.cancelPreload(context, new ArrayList<>(prefetched));
+            prefetched.clear();
+        }
+    }
+}
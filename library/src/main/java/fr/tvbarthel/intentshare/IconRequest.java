@@ -0,0 +1,111 @@
+package fr.tvbarthel.intentshare;
+
+import android.net.Uri;
+import android.widget.ImageView;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Token of an icon requested by an {@link ImageView}.
+ * <p/>
+ * The token of the pending request is kept as a tag of the image view, see {@link #attach()}. A
+ * decoded icon is only delivered if the request is still the current one of its image view :
+ * results of a request replaced by a newer one, for instance once the view has been recycled,
+ * are dropped without touching the view.
+ */
+final class IconRequest {
+
+    /**
+     * Generation of the last created request.
+     */
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+
+    private final ImageView imageView;
+    private final Uri uri;
+    private final int generation;
+    private IconDecodeTask task;
+
+    /**
+     * Token of an icon requested by an {@link ImageView}.
+     *
+     * @param imageView image view in which the icon should be loaded.
+     * @param uri       uri of the requested icon.
+     */
+    IconRequest(ImageView imageView, Uri uri) {
+        this.imageView = imageView;
+        this.uri = uri;
+        this.generation = GENERATION.incrementAndGet();
+    }
+
+    /**
+     * Retrieve the current request of an image view.
+     *
+     * @param imageView image view.
+     * @return pending request of the image view or null if none.
+     */
+    static IconRequest get(ImageView imageView) {
+        return (IconRequest) imageView.getTag(R.id.isl_icon_request);
+    }
+
+    /**
+     * Make the request the current one of its image view.
+     */
+    void attach() {
+        imageView.setTag(R.id.isl_icon_request, this);
+    }
+
+    /**
+     * Remove the request from its image view if still the current one.
+     */
+    void detach() {
+        if (isCurrent()) {
+            imageView.setTag(R.id.isl_icon_request, null);
+        }
+    }
+
+    /**
+     * Used to know if the request is still the current one of its image view.
+     *
+     * @return true if the image view still waits for the result of this request.
+     */
+    boolean isCurrent() {
+        IconRequest current = get(imageView);
+        return current != null && current.generation == generation;
+    }
+
+    /**
+     * Retrieve the image view in which the icon should be loaded.
+     *
+     * @return image view.
+     */
+    ImageView getImageView() {
+        return imageView;
+    }
+
+    /**
+     * Retrieve the uri of the requested icon.
+     *
+     * @return icon uri.
+     */
+    Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * Retrieve the decode serving the request.
+     *
+     * @return decode serving the request or null if not decoding.
+     */
+    IconDecodeTask getTask() {
+        return task;
+    }
+
+    /**
+     * Set the decode serving the request.
+     *
+     * @param task decode serving the request.
+     */
+    void setTask(IconDecodeTask task) {
+        this.task = task;
+    }
+}
@@ -0,0 +1,138 @@
+package fr.tvbarthel.intentshare;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.net.Uri;
+
+import java.util.Locale;
+
+/**
+ * Shape applied to the icons decoded by the default icon loader.
+ * <p/>
+ * Icons are shaped once, off the ui thread, and cached shaped : target activities still draw
+ * plain bitmaps without any clipping.
+ * <p/>
+ * See also : {@link AsyncIconLoader#iconShape(IconShape)}
+ */
+public enum IconShape {
+
+    /**
+     * Icons are displayed as provided by the target applications.
+     */
+    NONE,
+
+    /**
+     * Icons are cropped to a circle.
+     */
+    CIRCLE,
+
+    /**
+     * Icons are cropped to a squircle, a square with continuously rounded corners.
+     */
+    SQUIRCLE,
+
+    /**
+     * Icons are cropped to a square with rounded corners.
+     */
+    ROUNDED_RECT;
+
+    /**
+     * Query parameter distinguishing the cached icons of each shape.
+     */
+    private static final String QUERY_PARAMETER = "isl_shape";
+
+    /**
+     * Corner radius of {@link #ROUNDED_RECT} relative to the icon size.
+     */
+    private static final float CORNER_RADIUS_RATIO = 0.2f;
+
+    /**
+     * Exponent of the superellipse drawn for {@link #SQUIRCLE}.
+     */
+    private static final double SQUIRCLE_EXPONENT = 4;
+
+    /**
+     * Number of segments used to draw a quarter of the {@link #SQUIRCLE}.
+     */
+    private static final int SQUIRCLE_QUARTER_SEGMENTS = 16;
+
+    /**
+     * Retrieve the uri under which the icon is cached once shaped.
+     *
+     * @param iconUri uri of the icon.
+     * @return uri of the shaped icon, the given one for {@link #NONE}.
+     */
+    Uri getCacheUri(Uri iconUri) {
+        if (this == NONE) {
+            return iconUri;
+        }
+        return iconUri.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER, name().toLowerCase(Locale.US))
+                .build();
+    }
+
+    /**
+     * Apply the shape to a decoded icon.
+     * <p/>
+     * Non square icons are centered in a square before being shaped. Should not be called from
+     * the ui thread.
+     *
+     * @param icon decoded icon.
+     * @return shaped icon, the given one for {@link #NONE}.
+     */
+    Bitmap apply(Bitmap icon) {
+        if (this == NONE) {
+            return icon;
+        }
+        int width = icon.getWidth();
+        int height = icon.getHeight();
+        int size = Math.max(width, height);
+        Bitmap shaped = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+
+        BitmapShader shader = new BitmapShader(icon, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        Matrix matrix = new Matrix();
+        matrix.setTranslate((size - width) / 2f, (size - height) / 2f);
+        shader.setLocalMatrix(matrix);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        paint.setShader(shader);
+
+        Canvas canvas = new Canvas(shaped);
+        RectF bounds = new RectF(0, 0, size, size);
+        if (this == CIRCLE) {
+            canvas.drawOval(bounds, paint);
+        } else if (this == ROUNDED_RECT) {
+            float radius = size * CORNER_RADIUS_RATIO;
+            canvas.drawRoundRect(bounds, radius, radius, paint);
+        } else {
+            canvas.drawPath(buildSquircle(size), paint);
+        }
+        return shaped;
+    }
+
+    private static Path buildSquircle(int size) {
+        float radius = size / 2f;
+        Path path = new Path();
+        int segments = SQUIRCLE_QUARTER_SEGMENTS * 4;
+        for (int i = 0; i < segments; i++) {
+            double angle = 2 * Math.PI * i / segments;
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            // |x|^n + |y|^n = r^n
+            float x = (float) (Math.signum(cos) * Math.pow(Math.abs(cos), 2 / SQUIRCLE_EXPONENT) * radius);
+            float y = (float) (Math.signum(sin) * Math.pow(Math.abs(sin), 2 / SQUIRCLE_EXPONENT) * radius);
+            if (i == 0) {
+                path.moveTo(radius + x, radius + y);
+            } else {
+                path.lineTo(radius + x, radius + y);
+            }
+        }
+        path.close();
+        return path;
+    }
+}
@@ -0,0 +1,175 @@
+package fr.tvbarthel.intentshare;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link IconDecoder} backend relying on {@code android.graphics.ImageDecoder}, available from
+ * Android P.
+ * <p/>
+ * The icon is decoded straight at its displayed size in a single pass, without intermediate
+ * sampled buffer.
+ * <p/>
+ * The library still compiles against an sdk without ImageDecoder : it is reached through
+ * reflection until the toolchain is upgraded.
+ */
+final class ImageDecoderIconBackend {
+
+    /**
+     * Api level of Android P.
+     */
+    private static final int ANDROID_P = 28;
+
+    private static final String TAG = ImageDecoderIconBackend.class.getSimpleName();
+
+    /**
+     * Method called by ImageDecoder once the header of the icon has been decoded.
+     */
+    private static final String ON_HEADER_DECODED = "onHeaderDecoded";
+
+    /**
+     * ImageDecoder api, null if not available on the device.
+     */
+    private static final Api API = Api.resolve();
+
+    /**
+     * Non instantiable class.
+     */
+    private ImageDecoderIconBackend() {
+
+    }
+
+    /**
+     * Used to know if the backend can be used on the device.
+     *
+     * @return true from Android P.
+     */
+    static boolean isAvailable() {
+        return API != null;
+    }
+
+    /**
+     * Decode an encoded icon at the exact displayed size.
+     *
+     * @param encoded    encoded icon file.
+     * @param targetSize displayed size of the icon in pixel, the icon will fit inside.
+     * @return decoded icon.
+     * @throws IOException if the icon can't be decoded.
+     */
+    static Bitmap decode(byte[] encoded, final int targetSize) throws IOException {
+        if (API == null) {
+            throw new IOException("ImageDecoder isn't available on this device.");
+        }
+        Object listener = Proxy.newProxyInstance(
+                ImageDecoderIconBackend.class.getClassLoader(),
+                new Class<?>[]{API.listenerClass},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(this, args);
+                        }
+                        if (ON_HEADER_DECODED.equals(method.getName())) {
+                            onHeaderDecoded(args[0], args[1], targetSize);
+                        }
+                        return null;
+                    }
+                }
+        );
+        try {
+            Object source = API.createSource.invoke(null, ByteBuffer.wrap(encoded));
+            return (Bitmap) API.decodeBitmap.invoke(null, source, listener);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("ImageDecoder failed to decode the icon.", cause);
+        } catch (IllegalAccessException e) {
+            throw new IOException("ImageDecoder can't be accessed.", e);
+        }
+    }
+
+    private static void onHeaderDecoded(Object decoder, Object info, int targetSize)
+            throws InvocationTargetException, IllegalAccessException {
+        // software pixels are needed by the disk cache, the placeholders and the atlas.
+        API.setAllocator.invoke(decoder, API.allocatorSoftware);
+        Size size = (Size) API.getSize.invoke(info);
+        int width = size.getWidth();
+        int height = size.getHeight();
+        if (targetSize <= 0 || width <= 0 || height <= 0) {
+            return;
+        }
+        int targetWidth = targetSize;
+        int targetHeight = targetSize;
+        if (width > height) {
+            targetHeight = Math.max(1, Math.round((float) height * targetSize / width));
+        } else if (height > width) {
+            targetWidth = Math.max(1, Math.round((float) width * targetSize / height));
+        }
+        API.setTargetSize.invoke(decoder, targetWidth, targetHeight);
+    }
+
+    /**
+     * Reflected ImageDecoder api.
+     */
+    private static final class Api {
+
+        private final Class<?> listenerClass;
+        private final Method createSource;
+        private final Method decodeBitmap;
+        private final Method setAllocator;
+        private final Method setTargetSize;
+        private final Method getSize;
+        private final int allocatorSoftware;
+
+        /**
+         * Reflected ImageDecoder api.
+         *
+         * @param decoderClass ImageDecoder class.
+         * @throws ClassNotFoundException if a class of the api is missing.
+         * @throws NoSuchMethodException  if a method of the api is missing.
+         * @throws NoSuchFieldException   if a constant of the api is missing.
+         * @throws IllegalAccessException if a constant of the api can't be read.
+         */
+        private Api(Class<?> decoderClass)
+                throws ClassNotFoundException, NoSuchMethodException, NoSuchFieldException, IllegalAccessException {
+            Class<?> sourceClass = Class.forName("android.graphics.ImageDecoder$Source");
+            Class<?> infoClass = Class.forName("android.graphics.ImageDecoder$ImageInfo");
+            listenerClass = Class.forName("android.graphics.ImageDecoder$OnHeaderDecodedListener");
+            createSource = decoderClass.getMethod("createSource", ByteBuffer.class);
+            decodeBitmap = decoderClass.getMethod("decodeBitmap", sourceClass, listenerClass);
+            setAllocator = decoderClass.getMethod("setAllocator", int.class);
+            setTargetSize = decoderClass.getMethod("setTargetSize", int.class, int.class);
+            getSize = infoClass.getMethod("getSize");
+            allocatorSoftware = decoderClass.getField("ALLOCATOR_SOFTWARE").getInt(null);
+        }
+
+        /**
+         * Resolve the ImageDecoder api.
+         *
+         * @return resolved api or null before Android P.
+         */
+        static Api resolve() {
+            if (Build.VERSION.SDK_INT < ANDROID_P) {
+                return null;
+            }
+            try {
+                return new Api(Class.forName("android.graphics.ImageDecoder"));
+            } catch (ClassNotFoundException | NoSuchMethodException | NoSuchFieldException
+                    | IllegalAccessException e) {
+                Log.e(TAG, "ImageDecoder api not found, BitmapFactory is used instead.", e);
+                return null;
+            }
+        }
+    }
+}
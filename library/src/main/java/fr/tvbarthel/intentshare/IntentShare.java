@@ -76,6 +76,11 @@ public final class IntentShare implements Parcelable {
      */
     IconLoader iconLoader;
 
+    /**
+     * Config policy of the icons decoded by the default icon loader.
+     */
+    IconBitmapPolicy iconBitmapPolicy;
+
     /**
      * Provide the comparator used to sort the target activities.
      */
@@ -104,6 +109,7 @@ public final class IntentShare implements Parcelable {
         packageWithExtraProvider = new ArrayList<>();
         this.listener = null;
         this.iconLoader = new AsyncIconLoader();
+        this.iconBitmapPolicy = IconBitmapPolicy.ARGB_8888;
         this.comparatorProvider = new TargetActivity.RecencyComparatorProvider();
         this.chooserTitle = context.getString(R.string.isl_default_sharing_label);
     }
@@ -121,6 +127,7 @@ public final class IntentShare implements Parcelable {
         this.mailSubject = in.readString();
         this.extraProviders = in.createTypedArrayList(ExtraProvider.CREATOR);
         this.iconLoader = in.readParcelable(IconLoader.class.getClassLoader());
+        this.iconBitmapPolicy = IconBitmapPolicy.values()[in.readInt()];
         this.comparatorProvider = in.readParcelable(TargetActivityComparatorProvider.class.getClassLoader());
         this.chooserTitle = in.readString();
     }
@@ -138,6 +145,7 @@ public final class IntentShare implements Parcelable {
         dest.writeString(this.mailSubject);
         dest.writeTypedList(this.extraProviders);
         dest.writeParcelable(this.iconLoader, flags);
+        dest.writeInt(this.iconBitmapPolicy.ordinal());
         dest.writeParcelable(this.comparatorProvider, flags);
         dest.writeString(this.chooserTitle);
     }
@@ -178,6 +186,19 @@ public final class IntentShare implements Parcelable {
         return this;
     }
 
+    /**
+     * Set the {@link IconBitmapPolicy} of the icons decoded by the default icon loader.
+     * <p/>
+     * By default, icons are decoded as {@link IconBitmapPolicy#ARGB_8888}.
+     *
+     * @param iconBitmapPolicy config policy of the decoded icons.
+     * @return current {@link IntentShare} for method chaining.
+     */
+    public IntentShare iconBitmapPolicy(@NonNull IconBitmapPolicy iconBitmapPolicy) {
+        this.iconBitmapPolicy = iconBitmapPolicy;
+        return this;
+    }
+
     /**
      * Provide a custom {@link java.util.Comparator} in order to sort the {@link TargetActivity}
      * displayed to the user.
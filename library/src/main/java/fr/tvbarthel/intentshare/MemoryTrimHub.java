@@ -0,0 +1,108 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.ArrayList;
+
+/**
+ * Process-wide hub dispatching memory pressure events to every cache of the library.
+ * <p/>
+ * Once {@link #install(Context)}, the hub listens to the application memory callbacks and asks
+ * each registered {@link Trimmable} to shed a part of its content according to the trim level,
+ * see {@link IconMemoryBudget#getRetainedFraction(int)}.
+ */
+final class MemoryTrimHub implements ComponentCallbacks2 {
+
+    /**
+     * Shared instance.
+     */
+    private static MemoryTrimHub instance;
+
+    private final ArrayList<Trimmable> trimmables;
+    private boolean installed;
+
+    /**
+     * Process-wide hub dispatching memory pressure events.
+     */
+    private MemoryTrimHub() {
+        trimmables = new ArrayList<>();
+        installed = false;
+    }
+
+    /**
+     * Retrieve the process-wide memory trim hub.
+     *
+     * @return shared memory trim hub.
+     */
+    public static synchronized MemoryTrimHub getInstance() {
+        if (instance == null) {
+            instance = new MemoryTrimHub();
+        }
+        return instance;
+    }
+
+    /**
+     * Start listening to the memory callbacks of the application.
+     * <p/>
+     * Can safely be called several times.
+     *
+     * @param context context used to access to the application.
+     */
+    public synchronized void install(Context context) {
+        if (!installed) {
+            installed = true;
+            context.getApplicationContext().registerComponentCallbacks(this);
+        }
+    }
+
+    /**
+     * Register a cache which should be trimmed under memory pressure.
+     *
+     * @param trimmable cache to register.
+     */
+    public synchronized void register(Trimmable trimmable) {
+        if (!trimmables.contains(trimmable)) {
+            trimmables.add(trimmable);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        float retainedFraction = IconMemoryBudget.getRetainedFraction(level);
+        if (retainedFraction >= 1f) {
+            return;
+        }
+        ArrayList<Trimmable> registered;
+        synchronized (this) {
+            registered = new ArrayList<>(trimmables);
+        }
+        for (int i = 0; i < registered.size(); i++) {
+            registered.get(i).trim(retainedFraction);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // nothing to do.
+    }
+
+    /**
+     * Cache which can release a part of its content under memory pressure.
+     */
+    interface Trimmable {
+
+        /**
+         * Release a part of the content.
+         *
+         * @param retainedFraction fraction of the content to keep, 0 to release everything.
+         */
+        void trim(float retainedFraction);
+    }
+}
@@ -0,0 +1,242 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide session keeping the {@link Resources} of the target applications.
+ * <p/>
+ * Resources of a package are loaded once and shared by the label and the icon loadings of
+ * every target activity of the package. The chooser and each loading must {@link #acquire()} the
+ * session and {@link #release()} it once done : the resources are evicted once the session
+ * hasn't been used for {@link #EVICTION_DELAY_MILLI}, after the chooser settled.
+ * <p/>
+ * Under memory pressure, resources are evicted right away if the session isn't used, and even if
+ * the session is used once everything should be released.
+ */
+final class PackageResourcesSession implements MemoryTrimHub.Trimmable {
+
+    private static final String TAG = PackageResourcesSession.class.getSimpleName();
+
+    /**
+     * Delay in milli after the last release before evicting the loaded resources.
+     */
+    private static final long EVICTION_DELAY_MILLI = 3000;
+
+    /**
+     * Shared instance.
+     */
+    private static PackageResourcesSession instance;
+
+    private final PackageManager packageManager;
+    private final ConcurrentHashMap<String, Resources> resources;
+    private final ConcurrentHashMap<String, Integer> versionCodes;
+    private final Handler handler;
+    private final Runnable evictionRunnable;
+    private int acquiredCount;
+
+    /**
+     * Process-wide session keeping the {@link Resources} of the target applications.
+     *
+     * @param packageManager package manager used to load the resources.
+     */
+    private PackageResourcesSession(PackageManager packageManager) {
+        this.packageManager = packageManager;
+        resources = new ConcurrentHashMap<>();
+        versionCodes = new ConcurrentHashMap<>();
+        handler = new Handler(Looper.getMainLooper());
+        evictionRunnable = new Runnable() {
+            @Override
+            public void run() {
+                evictAll();
+            }
+        };
+        acquiredCount = 0;
+    }
+
+    /**
+     * Retrieve the process-wide resources session.
+     *
+     * @param context context used to access to the package manager.
+     * @return shared resources session.
+     */
+    public static synchronized PackageResourcesSession getInstance(Context context) {
+        if (instance == null) {
+            instance = new PackageResourcesSession(context.getApplicationContext().getPackageManager());
+            MemoryTrimHub.getInstance().register(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Notify that a loading is going to use the session.
+     * <p/>
+     * Must be balanced with a call to {@link #release()}.
+     */
+    public synchronized void acquire() {
+        acquiredCount++;
+        handler.removeCallbacks(evictionRunnable);
+    }
+
+    /**
+     * Notify that a loading doesn't use the session anymore.
+     * <p/>
+     * Loaded resources are evicted after a delay once the session isn't used anymore.
+     */
+    public synchronized void release() {
+        if (acquiredCount == 0) {
+            Log.w(TAG, "Session released more times than acquired.");
+            return;
+        }
+        acquiredCount--;
+        if (acquiredCount == 0) {
+            handler.postDelayed(evictionRunnable, EVICTION_DELAY_MILLI);
+        }
+    }
+
+    /**
+     * Retrieve the resources of a target application, loaded once per session.
+     * <p/>
+     * Loadings of different packages aren't serialized : concurrent loadings of a same package
+     * all end up using the first loaded resources.
+     *
+     * @param packageName package of the target application.
+     * @return resources of the target application or null if the package can't be found.
+     */
+    public Resources getResources(@NonNull String packageName) {
+        Resources loaded = resources.get(packageName);
+        if (loaded != null) {
+            return loaded;
+        }
+        try {
+            loaded = packageManager.getResourcesForApplication(packageName);
+            Resources previous = resources.putIfAbsent(packageName, loaded);
+            return previous == null ? loaded : previous;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "Wrong package name, can't access to the resources : " + packageName);
+            return null;
+        }
+    }
+
+    /**
+     * Retrieve the version code of a target application, loaded once per session.
+     *
+     * @param packageName package of the target application.
+     * @return version code or -1 if the package can't be found.
+     */
+    public int getVersionCode(@NonNull String packageName) {
+        Integer versionCode = versionCodes.get(packageName);
+        if (versionCode != null) {
+            return versionCode;
+        }
+        try {
+            versionCode = packageManager.getPackageInfo(packageName, 0).versionCode;
+            versionCodes.putIfAbsent(packageName, versionCode);
+            return versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "Wrong package name, can't access to the version code : " + packageName);
+            return -1;
+        }
+    }
+
+    /**
+     * Retrieve the version code of a target application if already loaded by the session.
+     * <p/>
+     * Never calls the package manager, can be used from the ui thread.
+     *
+     * @param packageName package of the target application.
+     * @return version code or -1 if not loaded yet.
+     */
+    public int peekVersionCode(@NonNull String packageName) {
+        Integer versionCode = versionCodes.get(packageName);
+        return versionCode == null ? -1 : versionCode;
+    }
+
+    /**
+     * Load the label of a target activity from the session resources.
+     * <p/>
+     * Follow the same resolution order than {@link ResolveInfo#loadLabel(PackageManager)}.
+     *
+     * @param resolveInfo resolve info of the target activity.
+     * @return label of the target activity.
+     */
+    public CharSequence loadLabel(@NonNull ResolveInfo resolveInfo) {
+        if (resolveInfo.nonLocalizedLabel != null) {
+            return resolveInfo.nonLocalizedLabel;
+        }
+
+        ActivityInfo activityInfo = resolveInfo.activityInfo;
+        ApplicationInfo applicationInfo = activityInfo.applicationInfo;
+        // label of the resolve info is provided by the resolve package if any.
+        CharSequence label = getText(
+                resolveInfo.resolvePackageName != null ? resolveInfo.resolvePackageName : applicationInfo.packageName,
+                resolveInfo.labelRes
+        );
+        if (label == null) {
+            label = activityInfo.nonLocalizedLabel != null
+                    ? activityInfo.nonLocalizedLabel
+                    : getText(applicationInfo.packageName, activityInfo.labelRes);
+        }
+        if (label == null) {
+            label = applicationInfo.nonLocalizedLabel != null
+                    ? applicationInfo.nonLocalizedLabel
+                    : getText(applicationInfo.packageName, applicationInfo.labelRes);
+        }
+        if (label == null) {
+            label = resolveInfo.loadLabel(packageManager);
+        }
+        return label;
+    }
+
+    /**
+     * Evict every loaded resources.
+     */
+    public synchronized void evictAll() {
+        resources.clear();
+        versionCodes.clear();
+    }
+
+    @Override
+    public synchronized void trim(float retainedFraction) {
+        // evicted resources are loaded again by sessions still in use.
+        if (acquiredCount == 0 || retainedFraction <= 0f) {
+            handler.removeCallbacks(evictionRunnable);
+            evictAll();
+        }
+    }
+
+    /**
+     * Retrieve the number of packages for which resources are currently loaded.
+     *
+     * @return number of loaded packages.
+     */
+    public int size() {
+        return resources.size();
+    }
+
+    private CharSequence getText(String packageName, int resId) {
+        if (resId == 0) {
+            return null;
+        }
+        Resources packageResources = getResources(packageName);
+        if (packageResources == null) {
+            return null;
+        }
+        try {
+            return packageResources.getText(resId);
+        } catch (Resources.NotFoundException e) {
+            Log.w(TAG, "Can't find label " + resId + " for : " + packageName);
+            return null;
+        }
+    }
+}
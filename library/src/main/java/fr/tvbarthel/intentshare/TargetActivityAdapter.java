@@ -20,6 +20,11 @@ class TargetActivityAdapter extends RecyclerView.Adapter<TargetActivityAdapter.V
     private final String label;
     private final IconLoader iconLoader;
 
+    /**
+     * Scroll listener prefetching the icons of the next rows, null if not supported by the loader.
+     */
+    private IconPrefetchScrollListener iconPrefetchScrollListener;
+
     /**
      * Target activity info adapted.
      */
@@ -56,6 +61,27 @@ class TargetActivityAdapter extends RecyclerView.Adapter<TargetActivityAdapter.V
             }
         };
         this.iconLoader = iconLoader;
+        if (iconLoader instanceof ExtendedIconLoader) {
+            iconPrefetchScrollListener
+                    = new IconPrefetchScrollListener(targetActivities, (ExtendedIconLoader) iconLoader);
+        }
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        if (iconPrefetchScrollListener != null) {
+            recyclerView.addOnScrollListener(iconPrefetchScrollListener);
+        }
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        if (iconPrefetchScrollListener != null) {
+            recyclerView.removeOnScrollListener(iconPrefetchScrollListener);
+            iconPrefetchScrollListener.cancelAll(recyclerView.getContext());
+        }
     }
 
     @Override
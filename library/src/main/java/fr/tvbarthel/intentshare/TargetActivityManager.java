@@ -243,14 +243,14 @@ class TargetActivityManager {
      */
     private static final class AsyncLabelLoader extends AsyncTask<Void, Void, CharSequence> {
 
-        private final PackageManager packageManager;
+        private final PackageResourcesSession resourcesSession;
         private final TargetActivity targetActivity;
         private final ResolveListener listener;
 
         /**
          * Async task used to avoid loading the target activity label on the ui thread.
          *
-         * @param context        context used to access to the package manager.
+         * @param context        context used to access to the target application resources.
          * @param targetActivity target activity for which the label should be loaded.
          * @param listener       to notify once the label has been loaded.
          */
@@ -258,22 +258,35 @@ class TargetActivityManager {
                 @NonNull Context context,
                 @NonNull TargetActivity targetActivity,
                 @NonNull ResolveListener listener) {
-            packageManager = context.getPackageManager();
+            resourcesSession = PackageResourcesSession.getInstance(context);
             this.targetActivity = targetActivity;
             this.listener = listener;
         }
 
+        @Override
+        protected void onPreExecute() {
+            super.onPreExecute();
+            resourcesSession.acquire();
+        }
+
         @Override
         protected CharSequence doInBackground(Void... params) {
-            return targetActivity.getResolveInfo().loadLabel(packageManager);
+            return resourcesSession.loadLabel(targetActivity.getResolveInfo());
         }
 
         @Override
         protected void onPostExecute(CharSequence s) {
             super.onPostExecute(s);
+            resourcesSession.release();
             targetActivity.setLabel(s);
             listener.onLabelResolved(targetActivity);
         }
+
+        @Override
+        protected void onCancelled(CharSequence s) {
+            super.onCancelled(s);
+            resourcesSession.release();
+        }
     }
 
 }
@@ -6,6 +6,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
@@ -30,6 +31,11 @@ public class TargetChooserActivity extends AppCompatActivity
      */
     private static final String EXTRA_INTENT_SHARE = "tca_extra_intent_share";
 
+    /**
+     * Number of icons preloaded once the target activities are resolved.
+     */
+    private static final int PRELOADED_ICON_COUNT = 16;
+
     /**
      * Key used to save the current scroll during rotation.
      */
@@ -180,6 +186,12 @@ public class TargetChooserActivity extends AppCompatActivity
         setUpRecyclerView(savedInstanceState);
         setUpStickyTitle();
 
+        // keep target applications resources loaded until the chooser is closed.
+        MemoryTrimHub.getInstance().install(this);
+        PackageResourcesSession.getInstance(this).acquire();
+        // start reading the icon placeholders before the first bind.
+        IconPlaceholderCache.getInstance(this);
+
         targetActivityManager = new TargetActivityManager();
         targetActivityManager.resolveTargetActivities(this, this, intentShare.comparatorProvider.provideComparator());
 
@@ -192,6 +204,31 @@ public class TargetChooserActivity extends AppCompatActivity
         finishAnimated();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (intentShare.iconLoader instanceof ExtendedIconLoader) {
+            ((ExtendedIconLoader) intentShare.iconLoader).resume(this);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // no need to pause loadings which are going to be dropped.
+        if (!isFinishing() && intentShare.iconLoader instanceof ExtendedIconLoader) {
+            ((ExtendedIconLoader) intentShare.iconLoader).pause(this);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (intentShare.iconLoader instanceof ExtendedIconLoader) {
+            ((ExtendedIconLoader) intentShare.iconLoader).trim(this, level);
+        }
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -201,6 +238,11 @@ public class TargetChooserActivity extends AppCompatActivity
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        PackageResourcesSession.getInstance(this).release();
+        if (intentShare.iconLoader instanceof ExtendedIconLoader) {
+            // loaders may be shared with the next choosers.
+            ((ExtendedIconLoader) intentShare.iconLoader).resume(this);
+        }
         if (!listenerNotified && !isChangingConfigurations()) {
             IntentShareListener.notifySharingCanceled(this);
         }
@@ -226,6 +268,14 @@ public class TargetChooserActivity extends AppCompatActivity
     public void onTargetActivitiesResolved(@NonNull ArrayList<TargetActivity> targetActivities) {
         this.targetActivities.addAll(targetActivities);
         adapter.notifyDataSetChanged();
+
+        if (intentShare.iconLoader instanceof ExtendedIconLoader) {
+            List<Uri> iconUris = new ArrayList<>();
+            for (int i = 0; i < Math.min(PRELOADED_ICON_COUNT, targetActivities.size()); i++) {
+                iconUris.add(targetActivities.get(i).getIconUri());
+            }
+            ((ExtendedIconLoader) intentShare.iconLoader).preload(this, iconUris);
+        }
     }
 
     @Override
@@ -243,6 +293,9 @@ public class TargetChooserActivity extends AppCompatActivity
 
     private void setUpRecyclerView(Bundle savedInstance) {
         recyclerView.setLayoutManager(LayoutManagerFactory.buildLayoutManager(this));
+        if (intentShare.iconLoader instanceof AsyncIconLoader) {
+            ((AsyncIconLoader) intentShare.iconLoader).setIconBitmapPolicy(intentShare.iconBitmapPolicy);
+        }
         targetActivities = new ArrayList<>();
         adapter = new TargetActivityAdapter(
                 targetActivities,
@@ -302,6 +355,22 @@ public class TargetChooserActivity extends AppCompatActivity
         );
         recyclerView.addOnScrollListener(
                 new RecyclerView.OnScrollListener() {
+                    @Override
+                    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                        super.onScrollStateChanged(recyclerView, newState);
+                        if (!(intentShare.iconLoader instanceof ExtendedIconLoader)) {
+                            return;
+                        }
+                        // decodes would compete with the layout of the flung rows, most of them
+                        // being scrolled off screen before completion.
+                        ExtendedIconLoader iconLoader = (ExtendedIconLoader) intentShare.iconLoader;
+                        if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+                            iconLoader.pause(TargetChooserActivity.this);
+                        } else if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                            iconLoader.resume(TargetChooserActivity.this);
+                        }
+                    }
+
                     @Override
                     public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
                         super.onScrolled(recyclerView, dx, dy);
@@ -0,0 +1,108 @@
+package fr.tvbarthel.intentshare;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Test for {@link IconDecodeGuard}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class IconDecodeGuardTest {
+
+    private static final int TARGET_SIZE = 96;
+
+    @Test
+    public void testSmallIconNotSampled() {
+        Assert.assertEquals(1, IconDecoder.calculateInSampleSize(16, 16, TARGET_SIZE, TARGET_SIZE));
+        Assert.assertEquals(1, IconDecodeGuard.getSampleSize(16, 16, TARGET_SIZE));
+        Assert.assertEquals(1, IconDecodeGuard.getSampleSize(1, 1, TARGET_SIZE));
+    }
+
+    @Test
+    public void testHugeIconSampledUnderBudget() {
+        int sampleSize = IconDecodeGuard.getSampleSize(4096, 4096, TARGET_SIZE);
+        Assert.assertTrue(4096 / sampleSize >= TARGET_SIZE);
+        assertUnderBudget(4096, 4096, sampleSize, TARGET_SIZE);
+    }
+
+    @Test
+    public void testHugeHeaderBoundsSampledUnderBudget() {
+        // bounds declared by a png header, the decoder never allocates them.
+        int sampleSize = IconDecodeGuard.getSampleSize(100000, 100000, TARGET_SIZE);
+        Assert.assertTrue(100000 / sampleSize >= TARGET_SIZE);
+        assertUnderBudget(100000, 100000, sampleSize, TARGET_SIZE);
+
+        sampleSize = IconDecodeGuard.getSampleSize(Integer.MAX_VALUE, Integer.MAX_VALUE, TARGET_SIZE);
+        assertUnderBudget(Integer.MAX_VALUE, Integer.MAX_VALUE, sampleSize, TARGET_SIZE);
+    }
+
+    @Test
+    public void testExtremeAspectRatioSampledUnderBudget() {
+        int sampleSize = IconDecodeGuard.getSampleSize(100000, 48, TARGET_SIZE);
+        assertUnderBudget(100000, 48, sampleSize, TARGET_SIZE);
+
+        sampleSize = IconDecodeGuard.getSampleSize(48, Integer.MAX_VALUE, TARGET_SIZE);
+        assertUnderBudget(48, Integer.MAX_VALUE, sampleSize, TARGET_SIZE);
+    }
+
+    @Test
+    public void testUnknownTargetSizeSampledUnderBudget() {
+        int sampleSize = IconDecodeGuard.getSampleSize(8192, 8192, 0);
+        assertUnderBudget(8192, 8192, sampleSize, 0);
+    }
+
+    @Test
+    public void testZeroSizeAndCorruptBoundsRejected() {
+        Assert.assertFalse(IconDecodeGuard.hasValidBounds(0, 0));
+        Assert.assertFalse(IconDecodeGuard.hasValidBounds(0, 48));
+        Assert.assertFalse(IconDecodeGuard.hasValidBounds(48, 0));
+        // bounds reported by BitmapFactory for an undecodable header.
+        Assert.assertFalse(IconDecodeGuard.hasValidBounds(-1, -1));
+        Assert.assertTrue(IconDecodeGuard.hasValidBounds(1, 1));
+    }
+
+    @Test
+    public void testOversizedIconNotBuffered() throws IOException {
+        int maxBytes = 64 * 1024;
+        Assert.assertNull(IconDecodeGuard.readFully(new ByteArrayInputStream(new byte[maxBytes + 1]), maxBytes));
+        Assert.assertEquals(maxBytes,
+                IconDecodeGuard.readFully(new ByteArrayInputStream(new byte[maxBytes]), maxBytes).length);
+
+        // streams may not report their size.
+        InputStream unknownSize = new FilterInputStream(new ByteArrayInputStream(new byte[maxBytes * 2])) {
+            @Override
+            public int available() throws IOException {
+                return 0;
+            }
+        };
+        Assert.assertNull(IconDecodeGuard.readFully(unknownSize, maxBytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnreadableIconReported() throws IOException {
+        InputStream corrupt = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("corrupt icon file");
+            }
+        };
+        IconDecodeGuard.readFully(corrupt, IconDecodeGuard.MAX_ENCODED_BYTES);
+    }
+
+    private static void assertUnderBudget(int width, int height, int sampleSize, int targetSize) {
+        Assert.assertTrue(sampleSize >= 1);
+        long sampledWidth = (long) Math.ceil((double) width / sampleSize);
+        long sampledHeight = (long) Math.ceil((double) height / sampleSize);
+        Assert.assertTrue(sampledWidth * sampledHeight <= IconDecodeGuard.getPixelBudget(targetSize));
+    }
+}
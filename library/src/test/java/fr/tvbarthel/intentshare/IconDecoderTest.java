@@ -0,0 +1,228 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.util.TypedValue;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Test for {@link IconDecoder}
+ * <p/>
+ * Icon files are served by mocked resources : huge, zero-size and corrupted files must never
+ * escape the decoder nor be delivered above the displayed size.
+ * <p/>
+ * Robolectric's own BitmapFactory shadow ignores the file content : icon files are decoded by
+ * {@link ShadowPngBitmapFactory} which reads the bounds from the png header.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, shadows = {IconDecoderTest.ShadowPngBitmapFactory.class})
+public class IconDecoderTest {
+
+    private static final int TARGET_SIZE = 96;
+    private static final int ICON_RES_ID = 0x7f020001;
+    private static final byte[] PNG_SIGNATURE = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private IconDecoder iconDecoder;
+
+    @Before
+    public void setUp() {
+        iconDecoder = new IconDecoder(IconDecoder.BACKEND_BITMAP_FACTORY);
+    }
+
+    @Test
+    public void testHugeIconDecodedUnderTargetSize() {
+        Bitmap icon = iconDecoder.decode(mockResources(pngHeader(100000, 100000)), ICON_RES_ID, TARGET_SIZE);
+        assertFitsTargetSize(icon);
+        Assert.assertFalse(iconDecoder.isDefaultIconUsed());
+    }
+
+    @Test
+    public void testZeroSizeIconNeverEscapes() {
+        Bitmap icon = iconDecoder.decode(mockResources(pngHeader(0, 0)), ICON_RES_ID, TARGET_SIZE);
+        assertFitsTargetSize(icon);
+        Assert.assertTrue(iconDecoder.isDefaultIconUsed());
+    }
+
+    @Test
+    public void testCorruptIconNeverEscapes() {
+        byte[] corrupted = pngHeader(48, 48);
+        byte[] garbage = new byte[256];
+        new Random(42).nextBytes(garbage);
+        System.arraycopy(garbage, 0, corrupted, 16, corrupted.length - 16);
+
+        Bitmap icon = iconDecoder.decode(mockResources(corrupted), ICON_RES_ID, TARGET_SIZE);
+        assertFitsTargetSize(icon);
+        Assert.assertTrue(iconDecoder.isDefaultIconUsed());
+    }
+
+    @Test
+    public void testMissingIconReplacedByDefaultIcon() {
+        Resources resources = Mockito.mock(Resources.class);
+        Mockito.doThrow(new Resources.NotFoundException()).when(resources).getValueForDensity(
+                Mockito.anyInt(), Mockito.anyInt(), Mockito.any(TypedValue.class), Mockito.anyBoolean());
+
+        assertFitsTargetSize(iconDecoder.decode(resources, ICON_RES_ID, TARGET_SIZE));
+        Assert.assertTrue(iconDecoder.isDefaultIconUsed());
+    }
+
+    @Test
+    public void testDefaultIconFlagResetOnEachDecode() {
+        Resources resources = Mockito.mock(Resources.class);
+        Mockito.doThrow(new Resources.NotFoundException()).when(resources).getValueForDensity(
+                Mockito.anyInt(), Mockito.anyInt(), Mockito.any(TypedValue.class), Mockito.anyBoolean());
+        iconDecoder.decode(resources, ICON_RES_ID, TARGET_SIZE);
+        Assert.assertTrue(iconDecoder.isDefaultIconUsed());
+
+        iconDecoder.decode(Resources.getSystem(), android.R.drawable.sym_def_app_icon, TARGET_SIZE);
+        Assert.assertFalse(iconDecoder.isDefaultIconUsed());
+    }
+
+    private static void assertFitsTargetSize(Bitmap icon) {
+        Assert.assertNotNull(icon);
+        Assert.assertTrue(icon.getWidth() <= TARGET_SIZE);
+        Assert.assertTrue(icon.getHeight() <= TARGET_SIZE);
+    }
+
+    /**
+     * Mock the resources of an application whose icon file, compressed inside the apk, can only
+     * be opened as a raw resource.
+     *
+     * @param iconFile content of the icon file.
+     * @return mocked resources.
+     */
+    private static Resources mockResources(final byte[] iconFile) {
+        Resources resources = Mockito.mock(Resources.class);
+        AssetManager assets = Mockito.mock(AssetManager.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                TypedValue value = (TypedValue) invocation.getArguments()[2];
+                value.string = "res/drawable-xxhdpi-v4/icon.png";
+                value.assetCookie = 1;
+                return null;
+            }
+        }).when(resources).getValueForDensity(
+                Mockito.anyInt(), Mockito.anyInt(), Mockito.any(TypedValue.class), Mockito.anyBoolean());
+        try {
+            Mockito.when(assets.openNonAssetFd(Mockito.anyInt(), Mockito.anyString()))
+                    .thenThrow(new FileNotFoundException());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        Mockito.when(resources.getAssets()).thenReturn(assets);
+        Mockito.when(resources.openRawResource(Mockito.anyInt())).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                return new ByteArrayInputStream(iconFile);
+            }
+        });
+        return resources;
+    }
+
+    /**
+     * Build a png file made of its signature and header chunk only.
+     *
+     * @param width  width declared by the header.
+     * @param height height declared by the header.
+     * @return png file without any pixel.
+     */
+    private static byte[] pngHeader(int width, int height) {
+        ByteBuffer header = ByteBuffer.allocate(17);
+        header.put(new byte[]{'I', 'H', 'D', 'R'});
+        header.putInt(width);
+        header.putInt(height);
+        // 8 bits, rgba, deflate, adaptive filtering, no interlace.
+        header.put(new byte[]{8, 6, 0, 0, 0});
+        CRC32 crc = new CRC32();
+        crc.update(header.array());
+
+        ByteBuffer file = ByteBuffer.allocate(8 + 4 + 17 + 4);
+        file.put(PNG_SIGNATURE);
+        file.putInt(13);
+        file.put(header.array());
+        file.putInt((int) crc.getValue());
+        return file.array();
+    }
+
+    /**
+     * BitmapFactory shadow decoding the bounds declared by the png header.
+     * <p/>
+     * Like the platform decoder, bounds are reported as -1 and no bitmap is returned when the
+     * header is corrupted or declares an empty icon.
+     */
+    @Implements(BitmapFactory.class)
+    public static class ShadowPngBitmapFactory {
+
+        @Implementation
+        public static Bitmap decodeStream(InputStream is, Rect outPadding, BitmapFactory.Options opts) {
+            int[] bounds = readBounds(is);
+            if (opts != null) {
+                opts.outWidth = bounds == null ? -1 : bounds[0];
+                opts.outHeight = bounds == null ? -1 : bounds[1];
+            }
+            if (bounds == null || (opts != null && opts.inJustDecodeBounds)) {
+                return null;
+            }
+            int sampleSize = opts == null ? 1 : Math.max(1, opts.inSampleSize);
+            Bitmap.Config config = opts == null || opts.inPreferredConfig == null
+                    ? Bitmap.Config.ARGB_8888 : opts.inPreferredConfig;
+            return Bitmap.createBitmap(
+                    (int) Math.ceil((double) bounds[0] / sampleSize),
+                    (int) Math.ceil((double) bounds[1] / sampleSize),
+                    config
+            );
+        }
+
+        private static int[] readBounds(InputStream is) {
+            try {
+                DataInputStream input = new DataInputStream(is);
+                byte[] signature = new byte[PNG_SIGNATURE.length];
+                input.readFully(signature);
+                if (!Arrays.equals(PNG_SIGNATURE, signature) || input.readInt() != 13) {
+                    return null;
+                }
+                byte[] header = new byte[17];
+                input.readFully(header);
+                CRC32 crc = new CRC32();
+                crc.update(header);
+                if (input.readInt() != (int) crc.getValue()) {
+                    return null;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(header, 4, 8);
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                if (width <= 0 || height <= 0) {
+                    return null;
+                }
+                return new int[]{width, height};
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package fr.tvbarthel.intentshare;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Test for {@link MemoryTrimHub}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MemoryTrimHubTest {
+
+    private static final int ICON_SIZE = 16;
+    private static final int ICON_COUNT = 8;
+    private static final int VERSION_CODE = 1;
+
+    @Before
+    public void setUp() {
+        IconMemoryCache.getInstance().setMaxSize(1024 * 1024);
+        IconMemoryCache.getInstance().evictAll();
+        IconBitmapPool.getInstance().clear();
+        IconAtlas.getInstance().evictAll();
+        PackageResourcesSession.getInstance(RuntimeEnvironment.application).evictAll();
+    }
+
+    @Test
+    public void testRetainedFractionDecreasesWithLevel() {
+        Assert.assertEquals(0.75f, IconMemoryBudget.getRetainedFraction(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        Assert.assertEquals(0.5f, IconMemoryBudget.getRetainedFraction(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        Assert.assertEquals(0.25f, IconMemoryBudget.getRetainedFraction(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        Assert.assertEquals(0f, IconMemoryBudget.getRetainedFraction(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+        Assert.assertEquals(0.5f,
+                IconMemoryBudget.getRetainedFraction(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+        Assert.assertEquals(0.25f, IconMemoryBudget.getRetainedFraction(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        Assert.assertEquals(0f, IconMemoryBudget.getRetainedFraction(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+    }
+
+    @Test
+    public void testMemoryCacheTrimmedProportionally() {
+        IconMemoryCache memoryCache = IconMemoryCache.getInstance();
+        for (int i = 0; i < ICON_COUNT; i++) {
+            memoryCache.put(buildIconUri(i), VERSION_CODE,
+                    Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888));
+        }
+        int fullSize = memoryCache.size();
+        Assert.assertTrue(fullSize > 0);
+
+        MemoryTrimHub.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        Assert.assertTrue(memoryCache.size() <= fullSize / 2);
+        Assert.assertTrue(memoryCache.size() > 0);
+        // most recently used icons are kept.
+        Assert.assertNotNull(memoryCache.get(buildIconUri(ICON_COUNT - 1), VERSION_CODE));
+        Assert.assertNull(memoryCache.get(buildIconUri(0), VERSION_CODE));
+
+        MemoryTrimHub.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        Assert.assertEquals(0, memoryCache.size());
+    }
+
+    @Test
+    public void testBitmapPoolTrimmedProportionally() {
+        IconBitmapPool bitmapPool = IconBitmapPool.getInstance();
+        for (int i = 0; i < 4; i++) {
+            bitmapPool.put(Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888));
+        }
+        int fullSize = bitmapPool.size();
+        Assert.assertTrue(fullSize > 0);
+
+        MemoryTrimHub.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        Assert.assertEquals(fullSize / 4, bitmapPool.size());
+
+        MemoryTrimHub.getInstance().onLowMemory();
+        Assert.assertEquals(0, bitmapPool.size());
+    }
+
+    @Test
+    public void testAtlasReleasedUnderHighPressureOnly() {
+        IconAtlas atlas = IconAtlas.getInstance();
+        Assert.assertTrue(atlas.pack(buildIconUri(0), VERSION_CODE,
+                Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888), ICON_SIZE));
+        int fullSize = atlas.size();
+        Assert.assertTrue(fullSize > 0);
+
+        MemoryTrimHub.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        Assert.assertEquals(fullSize, atlas.size());
+
+        MemoryTrimHub.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        Assert.assertEquals(0, atlas.size());
+        Assert.assertNull(atlas.getDrawable(buildIconUri(0), VERSION_CODE));
+    }
+
+    @Test
+    public void testPublishedAtlasIconsLeaveMemoryCache() {
+        IconAtlas atlas = IconAtlas.getInstance();
+        IconMemoryCache memoryCache = IconMemoryCache.getInstance();
+        Bitmap icon = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        Assert.assertTrue(atlas.pack(buildIconUri(0), VERSION_CODE, icon, ICON_SIZE));
+        // displayed as a bitmap until its page is published.
+        memoryCache.put(buildIconUri(0), VERSION_CODE, icon);
+        Assert.assertNull(atlas.getDrawable(buildIconUri(0), VERSION_CODE));
+
+        atlas.publish();
+        Assert.assertNotNull(atlas.getDrawable(buildIconUri(0), VERSION_CODE));
+        Assert.assertNull(memoryCache.get(buildIconUri(0), VERSION_CODE));
+        // an updated application never gets the icon of its previous version.
+        Assert.assertNull(atlas.getDrawable(buildIconUri(0), VERSION_CODE + 1));
+    }
+
+    @Test
+    public void testResourcesSessionKeptWhileUsed() {
+        Context context = RuntimeEnvironment.application;
+        PackageResourcesSession session = PackageResourcesSession.getInstance(context);
+        session.acquire();
+        Assert.assertNotNull(session.getResources(context.getPackageName()));
+        Assert.assertEquals(1, session.size());
+
+        MemoryTrimHub.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        Assert.assertEquals(1, session.size());
+
+        MemoryTrimHub.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        Assert.assertEquals(0, session.size());
+
+        session.getResources(context.getPackageName());
+        session.release();
+        MemoryTrimHub.getInstance().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        Assert.assertEquals(0, session.size());
+    }
+
+    private static Uri buildIconUri(int resId) {
+        return Uri.parse("android.resource://fr.tvbarthel.intentshare.test/" + resId);
+    }
+}
@@ -0,0 +1,187 @@
+package fr.tvbarthel.intentshare.loader.picasso;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.support.v4.content.res.ResourcesCompat;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link RequestHandler} decoding target activity icons straight from the resources of their
+ * package.
+ * <p/>
+ * The {@link Resources} of each package are reused across the icons of a chooser session and
+ * icons are subsampled according to the requested size while being decoded.
+ */
+final class PackageIconRequestHandler extends RequestHandler {
+
+    private final Context context;
+
+    /**
+     * Resources of the packages already accessed during the current session, by package name.
+     */
+    private final HashMap<String, Resources> packageResources;
+
+    /**
+     * Number of decoded icons.
+     */
+    private final AtomicLong decodeCount;
+
+    /**
+     * Time spent to decode icons, in nanoseconds.
+     */
+    private final AtomicLong decodeTimeNanos;
+
+    /**
+     * {@link RequestHandler} decoding target activity icons straight from the resources of their
+     * package.
+     *
+     * @param context context used to access to the package manager.
+     */
+    PackageIconRequestHandler(Context context) {
+        this.context = context.getApplicationContext();
+        packageResources = new HashMap<>();
+        decodeCount = new AtomicLong();
+        decodeTimeNanos = new AtomicLong();
+    }
+
+    @Override
+    public boolean canHandleRequest(Request data) {
+        Uri uri = data.uri;
+        return uri != null
+                && ContentResolver.SCHEME_ANDROID_RESOURCE.equals(uri.getScheme())
+                && uri.getAuthority() != null
+                && getResId(uri) != 0;
+    }
+
+    @Override
+    public Result load(Request request, int networkPolicy) throws IOException {
+        long start = System.nanoTime();
+        Resources resources = getResources(request.uri.getAuthority());
+        int resId = getResId(request.uri);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // resized by Picasso, no need to scale it to the screen density first.
+        options.inScaled = false;
+        if (request.config != null) {
+            options.inPreferredConfig = request.config;
+        }
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+
+        Bitmap icon;
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            options.inSampleSize = calculateInSampleSize(
+                    options.outWidth, options.outHeight, request.targetWidth, request.targetHeight);
+            options.inJustDecodeBounds = false;
+            icon = BitmapFactory.decodeResource(resources, resId, options);
+        } else {
+            // not a bitmap, for instance an adaptive icon.
+            icon = rasterize(resources, resId, request.targetWidth, request.targetHeight);
+        }
+        if (icon == null) {
+            throw new IOException("Unable to decode the icon : " + request.uri);
+        }
+        decodeTimeNanos.addAndGet(System.nanoTime() - start);
+        decodeCount.incrementAndGet();
+        return new Result(icon, Picasso.LoadedFrom.DISK);
+    }
+
+    /**
+     * Retrieve the number of icons decoded by the handler.
+     *
+     * @return decode count.
+     */
+    long getDecodeCount() {
+        return decodeCount.get();
+    }
+
+    /**
+     * Retrieve the time spent to decode icons by the handler.
+     *
+     * @return decode time in nanoseconds.
+     */
+    long getDecodeTimeNanos() {
+        return decodeTimeNanos.get();
+    }
+
+    /**
+     * Release the resources of the packages accessed so far.
+     */
+    synchronized void evictResources() {
+        packageResources.clear();
+    }
+
+    private synchronized Resources getResources(String packageName) throws IOException {
+        Resources resources = packageResources.get(packageName);
+        if (resources == null) {
+            try {
+                resources = context.getPackageManager().getResourcesForApplication(packageName);
+            } catch (PackageManager.NameNotFoundException e) {
+                throw new IOException("Target application not found : " + packageName);
+            }
+            packageResources.put(packageName, resources);
+        }
+        return resources;
+    }
+
+    private static int getResId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 1) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(segments.get(0));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int inSampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return inSampleSize;
+        }
+        // keep the decoded icon at least as large as requested, Picasso scales it down afterwards.
+        while (width / (inSampleSize * 2) >= targetWidth && height / (inSampleSize * 2) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static Bitmap rasterize(Resources resources, int resId, int targetWidth, int targetHeight) {
+        Drawable drawable;
+        try {
+            drawable = ResourcesCompat.getDrawable(resources, resId, null);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        if (drawable == null) {
+            return null;
+        }
+        int width = targetWidth > 0 ? targetWidth : drawable.getIntrinsicWidth();
+        int height = targetHeight > 0 ? targetHeight : drawable.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Bitmap icon = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(icon);
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(canvas);
+        return icon;
+    }
+}
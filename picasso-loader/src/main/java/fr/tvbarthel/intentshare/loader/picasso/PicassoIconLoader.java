@@ -1,17 +1,33 @@
 package fr.tvbarthel.intentshare.loader.picasso;
 
+import android.content.Context;
 import android.net.Uri;
 import android.os.Parcel;
 import android.widget.ImageView;
 
 import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+import com.squareup.picasso.StatsSnapshot;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import fr.tvbarthel.intentshare.ExtendedIconLoader;
+import fr.tvbarthel.intentshare.IconCacheStats;
 import fr.tvbarthel.intentshare.IconLoader;
+import fr.tvbarthel.intentshare.IconMemoryBudget;
+import fr.tvbarthel.intentshare.R;
 
 /**
  * {@link IconLoader} based on {@link com.squareup.picasso.Picasso}.
+ * <p/>
+ * Icons are loaded by a dedicated {@link Picasso} instance decoding them straight from the
+ * resources of their package, see {@link PackageIconRequestHandler}.
+ * <p/>
+ * Requests are tagged with the chooser session in order to pause them together. Cached icons are
+ * trimmed in proportion to the trim level, see {@link TrimmableIconCache}.
  */
-public class PicassoIconLoader implements IconLoader {
+public class PicassoIconLoader implements ExtendedIconLoader {
 
     /**
      * Parcelable.
@@ -28,10 +44,36 @@ public class PicassoIconLoader implements IconLoader {
         }
     };
 
+    /**
+     * Retained fraction below which the resources of the packages are released.
+     */
+    private static final float RESOURCES_TRIM_THRESHOLD = 0.25f;
+
+    /**
+     * Picasso instance dedicated to the icons, lazily created.
+     */
+    private static Picasso picasso;
+
+    /**
+     * Memory cache of the dedicated Picasso instance.
+     */
+    private static TrimmableIconCache memoryCache;
+
+    /**
+     * Request handler of the dedicated Picasso instance.
+     */
+    private static PackageIconRequestHandler requestHandler;
+
+    /**
+     * Tag of the requests of the chooser session.
+     */
+    private final Object sessionTag;
+
     /**
      * {@link IconLoader} based on {@link com.squareup.picasso.Picasso}.
      */
     public PicassoIconLoader() {
+        sessionTag = new Object();
     }
 
     /**
@@ -40,20 +82,71 @@ public class PicassoIconLoader implements IconLoader {
      * @param in parcel.
      */
     protected PicassoIconLoader(Parcel in) {
+        this();
+        // new chooser session, target applications may have been updated since the last one.
+        evictPackageResources();
     }
 
     @Override
     public void load(Uri iconUri, ImageView imageView) {
-        Picasso.with(imageView.getContext())
-                .load(iconUri)
-                .fit()
-                .centerInside()
-                .into(imageView);
+        buildRequest(imageView.getContext(), iconUri).into(imageView);
     }
 
     @Override
     public void cancel(ImageView imageView) {
-        Picasso.with(imageView.getContext()).cancelRequest(imageView);
+        getPicasso(imageView.getContext()).cancelRequest(imageView);
+    }
+
+    @Override
+    public void preload(Context context, List<Uri> iconUris) {
+        for (int i = 0; i < iconUris.size(); i++) {
+            buildRequest(context, iconUris.get(i)).fetch();
+        }
+    }
+
+    @Override
+    public void cancelPreload(Context context, List<Uri> iconUris) {
+        // Picasso can't cancel a single fetch without canceling the whole session tag.
+    }
+
+    @Override
+    public void pause(Context context) {
+        getPicasso(context).pauseTag(sessionTag);
+    }
+
+    @Override
+    public void resume(Context context) {
+        getPicasso(context).resumeTag(sessionTag);
+    }
+
+    @Override
+    public void trim(Context context, int level) {
+        float retainedFraction = IconMemoryBudget.getRetainedFraction(level);
+        if (retainedFraction >= 1f) {
+            return;
+        }
+        getPicasso(context);
+        memoryCache.trim(retainedFraction);
+        if (retainedFraction <= RESOURCES_TRIM_THRESHOLD) {
+            evictPackageResources();
+        }
+    }
+
+    @Override
+    public IconCacheStats stats(Context context) {
+        StatsSnapshot snapshot = getPicasso(context).getSnapshot();
+        long decodeCount = requestHandler.getDecodeCount();
+        long meanDecodeTimeMicros = decodeCount == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMicros(requestHandler.getDecodeTimeNanos() / decodeCount);
+        return new IconCacheStats.Builder()
+                .memoryHitCount(snapshot.cacheHits)
+                .memoryMissCount(snapshot.cacheMisses)
+                .memoryEvictionCount(memoryCache.evictionCount())
+                .memoryBytes(snapshot.size)
+                .memoryMaxBytes(snapshot.maxSize)
+                .decodeCount(decodeCount)
+                .meanDecodeTimeMicros(meanDecodeTimeMicros)
+                .build();
     }
 
     @Override
@@ -65,4 +158,52 @@ public class PicassoIconLoader implements IconLoader {
     public void writeToParcel(Parcel dest, int flags) {
     }
 
+    /**
+     * Retrieve the {@link Picasso} instance dedicated to the icons.
+     * <p/>
+     * The shared instance of the application isn't used since it can't be given an additional
+     * request handler.
+     *
+     * @param context context used to build the Picasso instance.
+     * @return dedicated Picasso instance.
+     */
+    private static synchronized Picasso getPicasso(Context context) {
+        if (picasso == null) {
+            Context applicationContext = context.getApplicationContext();
+            memoryCache = new TrimmableIconCache();
+            requestHandler = new PackageIconRequestHandler(applicationContext);
+            picasso = new Picasso.Builder(applicationContext)
+                    .memoryCache(memoryCache)
+                    .addRequestHandler(requestHandler)
+                    .build();
+        }
+        return picasso;
+    }
+
+    private static synchronized void evictPackageResources() {
+        if (requestHandler != null) {
+            requestHandler.evictResources();
+        }
+    }
+
+    /**
+     * Build the request of an icon, shared by the loads and the preloads for them to use the
+     * same cache keys.
+     * <p/>
+     * Icons are resized to the icon dimension instead of waiting for the image view to be
+     * measured.
+     *
+     * @param context context used to load the icon.
+     * @param iconUri uri of the icon.
+     * @return request of the icon.
+     */
+    private RequestCreator buildRequest(Context context, Uri iconUri) {
+        int iconSize = context.getResources().getDimensionPixelSize(R.dimen.isl_target_activity_view_icon_size);
+        return getPicasso(context)
+                .load(iconUri)
+                .resize(iconSize, iconSize)
+                .centerInside()
+                .tag(sessionTag);
+    }
+
 }
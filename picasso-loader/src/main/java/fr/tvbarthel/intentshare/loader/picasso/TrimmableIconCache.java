@@ -0,0 +1,102 @@
+package fr.tvbarthel.intentshare.loader.picasso;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import com.squareup.picasso.Cache;
+
+import java.util.ArrayList;
+
+import fr.tvbarthel.intentshare.IconMemoryBudget;
+
+/**
+ * Picasso memory cache of the icons which can be partially trimmed.
+ * <p/>
+ * Picasso's own {@link com.squareup.picasso.LruCache} can only be evicted at once from outside :
+ * this cache keeps the same keys but drops the least recently used icons in proportion
+ * to the trim level, see {@link IconMemoryBudget#getRetainedFraction(int)}.
+ */
+final class TrimmableIconCache implements Cache {
+
+    /**
+     * Separator between the uri and the transformations of a Picasso cache key.
+     */
+    private static final char KEY_SEPARATOR = '\n';
+
+    private final LruCache<String, Bitmap> cache;
+
+    /**
+     * Picasso memory cache of the icons which can be partially trimmed.
+     * <p/>
+     * Sized to the same icon budget as the library own memory cache, see
+     * {@link IconMemoryBudget#getDefaultMaxSize()}.
+     */
+    TrimmableIconCache() {
+        cache = new LruCache<String, Bitmap>(IconMemoryBudget.getDefaultMaxSize()) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+    }
+
+    @Override
+    public Bitmap get(String key) {
+        return cache.get(key);
+    }
+
+    @Override
+    public void set(String key, Bitmap bitmap) {
+        cache.put(key, bitmap);
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return cache.maxSize();
+    }
+
+    @Override
+    public void clear() {
+        cache.evictAll();
+    }
+
+    @Override
+    public void clearKeyUri(String keyPrefix) {
+        ArrayList<String> keys = new ArrayList<>(cache.snapshot().keySet());
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            if (key.startsWith(keyPrefix) && key.length() > keyPrefix.length()
+                    && key.charAt(keyPrefix.length()) == KEY_SEPARATOR) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drop the least recently used icons, keeping the given fraction of the cached bytes.
+     *
+     * @param retainedFraction fraction of the cached bytes to keep,
+     *                         see {@link IconMemoryBudget#getRetainedFraction(int)}.
+     */
+    void trim(float retainedFraction) {
+        if (retainedFraction <= 0f) {
+            cache.evictAll();
+        } else if (retainedFraction < 1f) {
+            cache.trimToSize(Math.round(cache.size() * retainedFraction));
+        }
+    }
+
+    /**
+     * Retrieve the number of icons evicted from the cache.
+     *
+     * @return eviction count.
+     */
+    int evictionCount() {
+        return cache.evictionCount();
+    }
+}